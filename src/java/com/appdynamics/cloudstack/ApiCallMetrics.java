@@ -0,0 +1,102 @@
+/**
+ * Copyright 2013 AppDynamics, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.appdynamics.cloudstack;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// counters and latency of one command against one management server. Every attempt counts as a call, so
+// retried requests show up as calls too.
+class ApiCallMetrics implements ApiCallMetricsMBean
+{
+	private final String endpoint;
+	private final String command;
+
+	private final AtomicLong calls = new AtomicLong();
+	private final AtomicLong errors = new AtomicLong();
+	private final AtomicLong throttles = new AtomicLong();
+	private final LatencyHistogram latency = new LatencyHistogram();
+
+	ApiCallMetrics(String endpoint, String command)
+	{
+		this.endpoint = endpoint;
+		this.command = command;
+	}
+
+	void record(long nanos, boolean error, boolean throttled)
+	{
+		calls.incrementAndGet();
+		latency.record(nanos);
+
+		if (throttled)
+		{
+			throttles.incrementAndGet();
+		}
+		else if (error)
+		{
+			errors.incrementAndGet();
+		}
+	}
+
+	LatencyHistogram getLatency()
+	{
+		return latency;
+	}
+
+	public String getEndpoint()
+	{
+		return endpoint;
+	}
+
+	public String getCommand()
+	{
+		return command;
+	}
+
+	public long getCalls()
+	{
+		return calls.get();
+	}
+
+	public long getErrors()
+	{
+		return errors.get();
+	}
+
+	public long getThrottles()
+	{
+		return throttles.get();
+	}
+
+	public double getMeanLatencyMillis()
+	{
+		return latency.getMeanMillis();
+	}
+
+	public double getP50LatencyMillis()
+	{
+		return latency.getQuantileMillis(0.5);
+	}
+
+	public double getP99LatencyMillis()
+	{
+		return latency.getQuantileMillis(0.99);
+	}
+
+	public double getP999LatencyMillis()
+	{
+		return latency.getQuantileMillis(0.999);
+	}
+}
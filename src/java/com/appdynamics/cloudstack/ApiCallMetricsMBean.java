@@ -0,0 +1,38 @@
+/**
+ * Copyright 2013 AppDynamics, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.appdynamics.cloudstack;
+
+// JMX view of the requests sent with one command to one management server
+public interface ApiCallMetricsMBean
+{
+	String getEndpoint();
+
+	String getCommand();
+
+	long getCalls();
+
+	long getErrors();
+
+	long getThrottles();
+
+	double getMeanLatencyMillis();
+
+	double getP50LatencyMillis();
+
+	double getP99LatencyMillis();
+
+	double getP999LatencyMillis();
+}
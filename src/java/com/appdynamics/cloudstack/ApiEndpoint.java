@@ -0,0 +1,64 @@
+/**
+ * Copyright 2013 AppDynamics, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.appdynamics.cloudstack;
+
+// a management server url together with the per server state requests to it go through
+class ApiEndpoint
+{
+	private final String accessUrl;
+	private final String apiUrl;
+	private final RequestGovernor governor;
+	private final CircuitBreaker circuitBreaker;
+	private final EndpointScore score = new EndpointScore();
+
+	ApiEndpoint(String accessUrl, RequestGovernor governor, CircuitBreaker circuitBreaker)
+	{
+		this.accessUrl = accessUrl;
+		this.apiUrl = accessUrl + "/api?";
+		this.governor = governor;
+		this.circuitBreaker = circuitBreaker;
+	}
+
+	String getAccessUrl()
+	{
+		return accessUrl;
+	}
+
+	String getApiUrl()
+	{
+		return apiUrl;
+	}
+
+	RequestGovernor getGovernor()
+	{
+		return governor;
+	}
+
+	CircuitBreaker getCircuitBreaker()
+	{
+		return circuitBreaker;
+	}
+
+	EndpointScore getScore()
+	{
+		return score;
+	}
+
+	ApiCallMetrics getMetrics(String command)
+	{
+		return ApiMetrics.getInstance().get(accessUrl, command);
+	}
+}
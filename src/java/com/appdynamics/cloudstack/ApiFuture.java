@@ -0,0 +1,128 @@
+/**
+ * Copyright 2013 AppDynamics, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.appdynamics.cloudstack;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+
+import org.apache.commons.httpclient.HttpMethod;
+
+// result of an asynchronous CloudStackClient call. Cancelling with mayInterruptIfRunning also aborts the http
+// request in flight, so the worker thread is freed without waiting for the socket timeout.
+public class ApiFuture<T> extends FutureTask<T>
+{
+	// the future whose call is running on the current worker thread
+	private static final ThreadLocal<ApiFuture<?>> current = new ThreadLocal<ApiFuture<?>>();
+
+	private final List<ApiFutureListener<T>> listeners = new ArrayList<ApiFutureListener<T>>();
+
+	private volatile HttpMethod inFlight;
+
+	ApiFuture(Callable<T> call)
+	{
+		super(call);
+	}
+
+	// called once the call succeeded, failed or was cancelled, right away if that already happened; runs on the
+	// worker thread and must not block
+	public void addListener(ApiFutureListener<T> listener)
+	{
+		synchronized (listeners)
+		{
+			if (!isDone())
+			{
+				listeners.add(listener);
+				return;
+			}
+		}
+
+		listener.done(this);
+	}
+
+	@Override
+	public void run()
+	{
+		current.set(this);
+
+		try
+		{
+			super.run();
+		}
+		finally
+		{
+			current.remove();
+		}
+	}
+
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning)
+	{
+		boolean cancelled = super.cancel(mayInterruptIfRunning);
+		HttpMethod method = inFlight;
+
+		if (cancelled && mayInterruptIfRunning && method != null)
+		{
+			method.abort();
+		}
+
+		return cancelled;
+	}
+
+	@Override
+	protected void done()
+	{
+		List<ApiFutureListener<T>> toNotify;
+
+		synchronized (listeners)
+		{
+			toNotify = new ArrayList<ApiFutureListener<T>>(listeners);
+			listeners.clear();
+		}
+
+		for (ApiFutureListener<T> listener : toNotify)
+		{
+			listener.done(this);
+		}
+	}
+
+	// lets a cancel reach the request the current thread is about to send; a no-op outside asynchronous calls
+	static void sending(HttpMethod method)
+	{
+		ApiFuture<?> future = current.get();
+
+		if (future != null)
+		{
+			future.inFlight = method;
+
+			if (future.isCancelled())
+			{
+				method.abort();
+			}
+		}
+	}
+
+	static void sent()
+	{
+		ApiFuture<?> future = current.get();
+
+		if (future != null)
+		{
+			future.inFlight = null;
+		}
+	}
+}
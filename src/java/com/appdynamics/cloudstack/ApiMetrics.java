@@ -0,0 +1,169 @@
+/**
+ * Copyright 2013 AppDynamics, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.appdynamics.cloudstack;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+// process wide registry of api call metrics per management server and command. Each entry is registered as an
+// MBean under com.appdynamics.cloudstack:type=ApiCallMetrics and the whole registry can be dumped in Prometheus
+// text format, through getPrometheusText() or the com.appdynamics.cloudstack:type=ApiMetrics MBean.
+public final class ApiMetrics implements ApiMetricsMBean
+{
+	private static final Logger logger = Logger.getLogger(ApiMetrics.class.getName());
+
+	private static final String DOMAIN = "com.appdynamics.cloudstack";
+
+	private static final ApiMetrics instance = new ApiMetrics();
+
+	private final ConcurrentMap<String, ApiCallMetrics> metrics = new ConcurrentHashMap<String, ApiCallMetrics>();
+
+	private ApiMetrics()
+	{
+		register(DOMAIN + ":type=ApiMetrics", this);
+	}
+
+	public static ApiMetrics getInstance()
+	{
+		return instance;
+	}
+
+	ApiCallMetrics get(String endpoint, String command)
+	{
+		String key = endpoint + " " + command;
+		ApiCallMetrics callMetrics = metrics.get(key);
+
+		if (callMetrics == null)
+		{
+			ApiCallMetrics created = new ApiCallMetrics(endpoint, command);
+			callMetrics = metrics.putIfAbsent(key, created);
+
+			if (callMetrics == null)
+			{
+				callMetrics = created;
+				register(DOMAIN + ":type=ApiCallMetrics,endpoint=" + ObjectName.quote(endpoint) + ",command="
+						+ command, created);
+			}
+		}
+
+		return callMetrics;
+	}
+
+	public String getPrometheusText()
+	{
+		Map<String, ApiCallMetrics> sorted = new TreeMap<String, ApiCallMetrics>(metrics);
+		StringBuilder text = new StringBuilder();
+
+		text.append("# HELP cloudstack_api_calls_total Api requests sent to the management server.\n");
+		text.append("# TYPE cloudstack_api_calls_total counter\n");
+		for (ApiCallMetrics callMetrics : sorted.values())
+		{
+			appendSample(text, "cloudstack_api_calls_total", callMetrics, null, callMetrics.getCalls());
+		}
+
+		text.append("# HELP cloudstack_api_errors_total Api requests that failed or returned an error response.\n");
+		text.append("# TYPE cloudstack_api_errors_total counter\n");
+		for (ApiCallMetrics callMetrics : sorted.values())
+		{
+			appendSample(text, "cloudstack_api_errors_total", callMetrics, null, callMetrics.getErrors());
+		}
+
+		text.append("# HELP cloudstack_api_throttles_total Api requests rejected by api.throttling.\n");
+		text.append("# TYPE cloudstack_api_throttles_total counter\n");
+		for (ApiCallMetrics callMetrics : sorted.values())
+		{
+			appendSample(text, "cloudstack_api_throttles_total", callMetrics, null, callMetrics.getThrottles());
+		}
+
+		text.append("# HELP cloudstack_api_latency_seconds Api request latency.\n");
+		text.append("# TYPE cloudstack_api_latency_seconds summary\n");
+		for (ApiCallMetrics callMetrics : sorted.values())
+		{
+			LatencyHistogram latency = callMetrics.getLatency();
+
+			appendSample(text, "cloudstack_api_latency_seconds", callMetrics, "0.5",
+					latency.getQuantileMicros(0.5) / 1e6);
+			appendSample(text, "cloudstack_api_latency_seconds", callMetrics, "0.99",
+					latency.getQuantileMicros(0.99) / 1e6);
+			appendSample(text, "cloudstack_api_latency_seconds", callMetrics, "0.999",
+					latency.getQuantileMicros(0.999) / 1e6);
+			appendSample(text, "cloudstack_api_latency_seconds_sum", callMetrics, null, latency.getSumMicros() / 1e6);
+			appendSample(text, "cloudstack_api_latency_seconds_count", callMetrics, null, latency.getCount());
+		}
+
+		return text.toString();
+	}
+
+	private static void appendSample(StringBuilder text, String name, ApiCallMetrics callMetrics, String quantile,
+			double value)
+	{
+		text.append(name).append("{endpoint=\"").append(escape(callMetrics.getEndpoint())).append("\",command=\"")
+				.append(escape(callMetrics.getCommand())).append('"');
+
+		if (quantile != null)
+		{
+			text.append(",quantile=\"").append(quantile).append('"');
+		}
+
+		text.append("} ");
+
+		if (value == (long) value)
+		{
+			text.append((long) value);
+		}
+		else
+		{
+			text.append(value);
+		}
+
+		text.append('\n');
+	}
+
+	private static String escape(String labelValue)
+	{
+		return labelValue.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+
+	private static void register(String name, Object mbean)
+	{
+		try
+		{
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName objectName = new ObjectName(name);
+
+			// left over by a previous load of the connector
+			if (server.isRegistered(objectName))
+			{
+				server.unregisterMBean(objectName);
+			}
+
+			server.registerMBean(mbean, objectName);
+		}
+		catch (Exception e)
+		{
+			// metrics are still collected and available as text
+			logger.log(Level.FINE, "Failed registering MBean " + name, e);
+		}
+	}
+}
@@ -0,0 +1,140 @@
+/**
+ * Copyright 2013 AppDynamics, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.appdynamics.cloudstack;
+
+// state of a CloudStack async job as reported by listAsyncJobs / queryAsyncJobResult
+public class AsyncJob
+{
+	public enum Status
+	{
+		PENDING, SUCCEEDED, FAILED
+	}
+
+	private String jobId;
+	private Status status = Status.PENDING;
+	private int resultCode;
+	private String errorText;
+	private String command;
+	private String instanceType;
+	private String instanceId;
+	private String created;
+
+	public String getJobId()
+	{
+		return jobId;
+	}
+
+	public Status getStatus()
+	{
+		return status;
+	}
+
+	public boolean isDone()
+	{
+		return status != Status.PENDING;
+	}
+
+	public int getResultCode()
+	{
+		return resultCode;
+	}
+
+	public String getErrorText()
+	{
+		return errorText;
+	}
+
+	public String getCommand()
+	{
+		return command;
+	}
+
+	public String getInstanceType()
+	{
+		return instanceType;
+	}
+
+	public String getInstanceId()
+	{
+		return instanceId;
+	}
+
+	public String getCreated()
+	{
+		return created;
+	}
+
+	// a copy carrying instanceId; parsed jobs may be shared by coalesced callers, so they are never changed
+	AsyncJob withInstanceId(String instanceId)
+	{
+		AsyncJob copy = new AsyncJob();
+		copy.jobId = jobId;
+		copy.status = status;
+		copy.resultCode = resultCode;
+		copy.errorText = errorText;
+		copy.command = command;
+		copy.instanceType = instanceType;
+		copy.instanceId = instanceId;
+		copy.created = created;
+		return copy;
+	}
+
+	void setJobId(String jobId)
+	{
+		this.jobId = jobId;
+	}
+
+	// 0 pending, 1 succeeded, 2 failed
+	void setStatus(int jobStatus)
+	{
+		this.status = jobStatus == 1 ? Status.SUCCEEDED : (jobStatus == 2 ? Status.FAILED : Status.PENDING);
+	}
+
+	void setStatus(Status status)
+	{
+		this.status = status;
+	}
+
+	void setResultCode(int resultCode)
+	{
+		this.resultCode = resultCode;
+	}
+
+	void setErrorText(String errorText)
+	{
+		this.errorText = errorText;
+	}
+
+	void setCommand(String command)
+	{
+		this.command = command;
+	}
+
+	void setInstanceType(String instanceType)
+	{
+		this.instanceType = instanceType;
+	}
+
+	void setInstanceId(String instanceId)
+	{
+		this.instanceId = instanceId;
+	}
+
+	void setCreated(String created)
+	{
+		this.created = created;
+	}
+}
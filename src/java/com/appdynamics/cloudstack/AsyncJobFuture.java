@@ -0,0 +1,178 @@
+/**
+ * Copyright 2013 AppDynamics, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.appdynamics.cloudstack;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+// completes with the final AsyncJob once the tracker sees the job succeed or fail; a failed job is a normal
+// completion, check AsyncJob.getStatus()
+public class AsyncJobFuture implements Future<AsyncJob>
+{
+	private final String jobId;
+	private final String instanceId;
+	private final long submittedAt = System.currentTimeMillis();
+
+	private final CountDownLatch done = new CountDownLatch(1);
+	private final List<AsyncJobListener> listeners = new ArrayList<AsyncJobListener>();
+
+	private volatile AsyncJob job;
+	private volatile Exception failure;
+	private volatile boolean cancelled;
+
+	AsyncJobFuture(String jobId, String instanceId)
+	{
+		this.jobId = jobId;
+		this.instanceId = instanceId;
+	}
+
+	public String getJobId()
+	{
+		return jobId;
+	}
+
+	// id of the virtual machine the job acts on
+	public String getInstanceId()
+	{
+		return instanceId;
+	}
+
+	long getSubmittedAt()
+	{
+		return submittedAt;
+	}
+
+	// runs right away if the job has already completed
+	public void addListener(AsyncJobListener listener)
+	{
+		synchronized (listeners)
+		{
+			if (!isDone())
+			{
+				listeners.add(listener);
+				return;
+			}
+		}
+
+		if (job != null)
+		{
+			listener.jobCompleted(job);
+		}
+	}
+
+	// stops tracking the job; the job itself keeps running on the management server
+	public boolean cancel(boolean mayInterruptIfRunning)
+	{
+		synchronized (listeners)
+		{
+			if (isDone())
+			{
+				return false;
+			}
+
+			cancelled = true;
+			listeners.clear();
+			done.countDown();
+			return true;
+		}
+	}
+
+	public boolean isCancelled()
+	{
+		return cancelled;
+	}
+
+	public boolean isDone()
+	{
+		return done.getCount() == 0;
+	}
+
+	public AsyncJob get() throws InterruptedException, ExecutionException
+	{
+		done.await();
+		return result();
+	}
+
+	public AsyncJob get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException,
+			TimeoutException
+	{
+		if (!done.await(timeout, unit))
+		{
+			throw new TimeoutException("Async job " + jobId + " still pending");
+		}
+
+		return result();
+	}
+
+	void complete(AsyncJob job)
+	{
+		List<AsyncJobListener> toNotify;
+
+		synchronized (listeners)
+		{
+			if (isDone())
+			{
+				return;
+			}
+
+			this.job = job;
+			done.countDown();
+			toNotify = new ArrayList<AsyncJobListener>(listeners);
+			listeners.clear();
+		}
+
+		for (AsyncJobListener listener : toNotify)
+		{
+			listener.jobCompleted(job);
+		}
+	}
+
+	void fail(Exception failure)
+	{
+		synchronized (listeners)
+		{
+			if (isDone())
+			{
+				return;
+			}
+
+			this.failure = failure;
+			listeners.clear();
+			done.countDown();
+		}
+	}
+
+	private AsyncJob result() throws ExecutionException
+	{
+		if (cancelled)
+		{
+			throw new CancellationException("Tracking of async job " + jobId + " was cancelled");
+		}
+
+		if (failure != null)
+		{
+			throw new ExecutionException(failure);
+		}
+
+		return job;
+	}
+}
@@ -0,0 +1,329 @@
+/**
+ * Copyright 2013 AppDynamics, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.appdynamics.cloudstack;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// keeps the outstanding async jobs of one CloudStackClient and polls them together: a single listAsyncJobs call
+// covers every job, queryAsyncJobResult is only used for a lone job or one that dropped out of the listing.
+// The listing starts at the oldest tracked job, so its size follows the jobs in flight rather than the account's
+// history. The poll interval doubles while nothing completes and resets whenever a job completes or a new one is
+// tracked. Each tracker polls on its own thread, a slow management server only delays its own jobs.
+class AsyncJobTracker
+{
+	private static final Logger logger = Logger.getLogger(AsyncJobTracker.class.getName());
+
+	// tolerates the management server's clock running behind ours
+	private static final long CLOCK_SKEW = 120000;
+
+	private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+			new DaemonThreadFactory("cloudstack-async-job-poller"));
+
+	private final CloudStackClient client;
+	private final long minPollInterval;
+	private final long maxPollInterval;
+	private final long maxJobAge;
+	private final List<AsyncJobListener> listeners = new CopyOnWriteArrayList<AsyncJobListener>();
+
+	private final Map<String, AsyncJobFuture> jobs = new ConcurrentHashMap<String, AsyncJobFuture>();
+	private final Map<String, AsyncJobFuture> jobsByInstance = new ConcurrentHashMap<String, AsyncJobFuture>();
+
+	private final Object scheduleLock = new Object();
+	private ScheduledFuture<?> nextPoll;
+	private long nextPollAt;
+	private long pollInterval;
+	private boolean polling;
+	private boolean shutdown;
+	private volatile boolean lastPollFailed;
+
+	AsyncJobTracker(CloudStackClient client, long minPollInterval, long maxPollInterval, long maxJobAge)
+	{
+		this.client = client;
+		this.minPollInterval = minPollInterval;
+		this.maxPollInterval = Math.max(minPollInterval, maxPollInterval);
+		this.maxJobAge = maxJobAge;
+		this.pollInterval = minPollInterval;
+	}
+
+	// notified of every job this tracker completes
+	void addListener(AsyncJobListener listener)
+	{
+		listeners.add(listener);
+	}
+
+	AsyncJobFuture track(String jobId, String instanceId)
+	{
+		AsyncJobFuture future = new AsyncJobFuture(jobId, instanceId);
+		jobs.put(jobId, future);
+
+		if (instanceId != null)
+		{
+			jobsByInstance.put(instanceId, future);
+		}
+
+		synchronized (scheduleLock)
+		{
+			pollInterval = minPollInterval;
+			schedule(minPollInterval);
+		}
+
+		return future;
+	}
+
+	AsyncJobFuture getJob(String jobId)
+	{
+		return jobs.get(jobId);
+	}
+
+	// the outstanding job acting on the given virtual machine, if any
+	AsyncJobFuture getJobForInstance(String instanceId)
+	{
+		return jobsByInstance.get(instanceId);
+	}
+
+	// false while polling fails, callers should then not rely on the tracker to learn about job completion
+	boolean isHealthy()
+	{
+		return !lastPollFailed;
+	}
+
+	void shutdown()
+	{
+		synchronized (scheduleLock)
+		{
+			shutdown = true;
+
+			if (nextPoll != null)
+			{
+				nextPoll.cancel(false);
+			}
+		}
+
+		scheduler.shutdown();
+
+		for (AsyncJobFuture future : jobs.values())
+		{
+			future.cancel(false);
+		}
+
+		jobs.clear();
+		jobsByInstance.clear();
+	}
+
+	// must hold scheduleLock; only ever moves a pending poll earlier
+	private void schedule(long delay)
+	{
+		if (shutdown || polling)
+		{
+			return;
+		}
+
+		long at = System.currentTimeMillis() + delay;
+
+		if (nextPoll != null && !nextPoll.isDone())
+		{
+			if (nextPollAt <= at)
+			{
+				return;
+			}
+
+			nextPoll.cancel(false);
+		}
+
+		nextPollAt = at;
+		nextPoll = scheduler.schedule(new Runnable()
+		{
+			public void run()
+			{
+				poll();
+			}
+		}, delay, TimeUnit.MILLISECONDS);
+	}
+
+	private void poll()
+	{
+		synchronized (scheduleLock)
+		{
+			if (shutdown)
+			{
+				return;
+			}
+
+			polling = true;
+			nextPoll = null;
+		}
+
+		boolean progress = false;
+
+		try
+		{
+			progress = pollJobs();
+			lastPollFailed = false;
+		}
+		catch (Exception e)
+		{
+			lastPollFailed = true;
+			logger.log(Level.FINE, "Failed polling async jobs, will retry", e);
+		}
+		finally
+		{
+			synchronized (scheduleLock)
+			{
+				polling = false;
+				pollInterval = progress ? minPollInterval : Math.min(pollInterval * 2, maxPollInterval);
+
+				if (!jobs.isEmpty())
+				{
+					schedule(pollInterval);
+				}
+			}
+		}
+	}
+
+	private boolean pollJobs() throws Exception
+	{
+		boolean progress = expireJobs();
+
+		if (jobs.isEmpty())
+		{
+			return progress;
+		}
+
+		List<String> unlisted = new ArrayList<String>(jobs.keySet());
+
+		if (unlisted.size() > 1)
+		{
+			Map<String, AsyncJob> listed = new HashMap<String, AsyncJob>();
+			long oldest = Long.MAX_VALUE;
+
+			for (AsyncJobFuture future : jobs.values())
+			{
+				oldest = Math.min(oldest, future.getSubmittedAt());
+			}
+
+			// a job beyond the first page is left unlisted and queried on its own
+			CloudStackResponse response = client.listAsyncJobsSince(
+					VirtualMachineIndex.formatStartDate(oldest - CLOCK_SKEW));
+
+			for (AsyncJob job : response.getAsyncJobs())
+			{
+				listed.put(job.getJobId(), job);
+			}
+
+			for (int i = unlisted.size() - 1; i >= 0; i--)
+			{
+				AsyncJob job = listed.get(unlisted.get(i));
+
+				if (job != null)
+				{
+					unlisted.remove(i);
+					progress |= update(job);
+				}
+			}
+		}
+
+		for (String jobId : unlisted)
+		{
+			AsyncJob job = client.queryAsyncJobResult(jobId);
+
+			if (job != null)
+			{
+				progress |= update(job);
+			}
+		}
+
+		return progress;
+	}
+
+	private boolean update(AsyncJob job)
+	{
+		if (!job.isDone())
+		{
+			return false;
+		}
+
+		AsyncJobFuture future = remove(job.getJobId());
+
+		if (future == null)
+		{
+			return false;
+		}
+
+		AsyncJob completed = job.getInstanceId() == null ? job.withInstanceId(future.getInstanceId()) : job;
+
+		for (AsyncJobListener listener : listeners)
+		{
+			try
+			{
+				listener.jobCompleted(completed);
+			}
+			catch (RuntimeException e)
+			{
+				logger.log(Level.WARNING, "Async job listener failed", e);
+			}
+		}
+
+		future.complete(completed);
+		return true;
+	}
+
+	// gives up on jobs the management server never reported back on
+	private boolean expireJobs()
+	{
+		boolean expired = false;
+		long now = System.currentTimeMillis();
+
+		for (AsyncJobFuture future : new ArrayList<AsyncJobFuture>(jobs.values()))
+		{
+			if (future.isCancelled() || now - future.getSubmittedAt() > maxJobAge)
+			{
+				remove(future.getJobId());
+				future.fail(new Exception("Async job " + future.getJobId() + " did not complete within " + maxJobAge
+						+ " ms"));
+				expired = true;
+			}
+		}
+
+		return expired;
+	}
+
+	private AsyncJobFuture remove(String jobId)
+	{
+		AsyncJobFuture future = jobs.remove(jobId);
+
+		if (future != null && future.getInstanceId() != null)
+		{
+			// a later job on the same instance may have replaced this one
+			if (jobsByInstance.get(future.getInstanceId()) == future)
+			{
+				jobsByInstance.remove(future.getInstanceId());
+			}
+		}
+
+		return future;
+	}
+}
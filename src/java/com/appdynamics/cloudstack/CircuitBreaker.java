@@ -0,0 +1,94 @@
+/**
+ * Copyright 2013 AppDynamics, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.appdynamics.cloudstack;
+
+// Stops sending to an end point that keeps failing at the transport level. After failureThreshold consecutive
+// failures the breaker opens and requests fail immediately; once openInterval has passed a single trial request
+// is let through (half open) and its outcome closes the breaker again or reopens it.
+class CircuitBreaker
+{
+	enum State
+	{
+		CLOSED, OPEN, HALF_OPEN
+	}
+
+	private final int failureThreshold;
+	private final long openInterval;
+
+	private State state = State.CLOSED;
+	private int failures;
+	private long openedAt;
+	private boolean trialInFlight;
+
+	// a threshold of 0 or less never opens the breaker
+	CircuitBreaker(int failureThreshold, long openInterval)
+	{
+		this.failureThreshold = failureThreshold;
+		this.openInterval = openInterval;
+	}
+
+	synchronized boolean allowRequest()
+	{
+		if (state == State.OPEN && System.currentTimeMillis() - openedAt >= openInterval)
+		{
+			state = State.HALF_OPEN;
+			trialInFlight = false;
+		}
+
+		if (state == State.HALF_OPEN)
+		{
+			if (trialInFlight)
+			{
+				return false;
+			}
+
+			trialInFlight = true;
+			return true;
+		}
+
+		return state == State.CLOSED;
+	}
+
+	// the server answered, whatever the answer was
+	synchronized void recordSuccess()
+	{
+		state = State.CLOSED;
+		failures = 0;
+		trialInFlight = false;
+	}
+
+	// the request was given up before its outcome was known; lets another trial through
+	synchronized void recordAbandoned()
+	{
+		trialInFlight = false;
+	}
+
+	synchronized void recordFailure()
+	{
+		trialInFlight = false;
+
+		if (state == State.HALF_OPEN || (failureThreshold > 0 && ++failures >= failureThreshold))
+		{
+			state = State.OPEN;
+			openedAt = System.currentTimeMillis();
+		}
+	}
+
+	synchronized State getState()
+	{
+		return state;
+	}
+}
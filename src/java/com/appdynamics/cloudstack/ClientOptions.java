@@ -0,0 +1,389 @@
+/**
+ * Copyright 2013 AppDynamics, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.appdynamics.cloudstack;
+
+// tuning knobs for a CloudStackClient; defaults are used for anything left unset
+public class ClientOptions
+{
+	public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 20;
+	public static final int DEFAULT_MAX_TOTAL_CONNECTIONS = 100;
+	public static final long DEFAULT_IDLE_CONNECTION_TIMEOUT = 60000;
+	public static final long DEFAULT_MACHINE_STATE_CACHE_TTL = 5000;
+	public static final long DEFAULT_MACHINE_STATE_FULL_SYNC_INTERVAL = 600000;
+	public static final int DEFAULT_LIST_PAGE_SIZE = 500;
+	public static final int DEFAULT_LIST_PAGE_CONCURRENCY = 1;
+	public static final long DEFAULT_MIN_JOB_POLL_INTERVAL = 1000;
+	public static final long DEFAULT_MAX_JOB_POLL_INTERVAL = 16000;
+	public static final long DEFAULT_MAX_JOB_AGE = 3600000;
+	public static final double DEFAULT_MAX_REQUESTS_PER_SECOND = 20;
+	public static final int DEFAULT_MAX_CONCURRENT_REQUESTS = 20;
+	public static final int DEFAULT_MAX_RETRIES = 3;
+	public static final long DEFAULT_RETRY_BASE_DELAY = 200;
+	public static final long DEFAULT_RETRY_MAX_DELAY = 5000;
+	public static final int DEFAULT_CIRCUIT_BREAKER_THRESHOLD = 5;
+	public static final long DEFAULT_CIRCUIT_BREAKER_OPEN_INTERVAL = 30000;
+	public static final long DEFAULT_MAX_RESPONSE_SIZE = 64L * 1024 * 1024;
+	public static final ResponseFormat DEFAULT_RESPONSE_FORMAT = ResponseFormat.XML;
+	public static final boolean DEFAULT_COMPRESSION_ENABLED = true;
+	public static final int DEFAULT_ASYNC_THREADS = 20;
+	public static final int DEFAULT_CONNECT_TIMEOUT = 10000;
+	public static final int DEFAULT_SOCKET_TIMEOUT = 60000;
+	public static final long DEFAULT_CONNECTION_MANAGER_TIMEOUT = 30000;
+	public static final int DEFAULT_MISSING_INSTANCE_CACHE_SIZE = 10000;
+	public static final boolean DEFAULT_REQUEST_COALESCING_ENABLED = true;
+	public static final long DEFAULT_MISSING_INSTANCE_CACHE_TTL = 600000;
+
+	int maxConnectionsPerHost = DEFAULT_MAX_CONNECTIONS_PER_HOST;
+	int maxTotalConnections = DEFAULT_MAX_TOTAL_CONNECTIONS;
+	long idleConnectionTimeout = DEFAULT_IDLE_CONNECTION_TIMEOUT;
+	long machineStateCacheTtl = DEFAULT_MACHINE_STATE_CACHE_TTL;
+	long machineStateFullSyncInterval = DEFAULT_MACHINE_STATE_FULL_SYNC_INTERVAL;
+	int listPageSize = DEFAULT_LIST_PAGE_SIZE;
+	int listPageConcurrency = DEFAULT_LIST_PAGE_CONCURRENCY;
+	long minJobPollInterval = DEFAULT_MIN_JOB_POLL_INTERVAL;
+	long maxJobPollInterval = DEFAULT_MAX_JOB_POLL_INTERVAL;
+	long maxJobAge = DEFAULT_MAX_JOB_AGE;
+	double maxRequestsPerSecond = DEFAULT_MAX_REQUESTS_PER_SECOND;
+	int maxConcurrentRequests = DEFAULT_MAX_CONCURRENT_REQUESTS;
+	int maxRetries = DEFAULT_MAX_RETRIES;
+	long retryBaseDelay = DEFAULT_RETRY_BASE_DELAY;
+	long retryMaxDelay = DEFAULT_RETRY_MAX_DELAY;
+	int circuitBreakerThreshold = DEFAULT_CIRCUIT_BREAKER_THRESHOLD;
+	long circuitBreakerOpenInterval = DEFAULT_CIRCUIT_BREAKER_OPEN_INTERVAL;
+	long maxResponseSize = DEFAULT_MAX_RESPONSE_SIZE;
+	ResponseFormat responseFormat = DEFAULT_RESPONSE_FORMAT;
+	boolean compressionEnabled = DEFAULT_COMPRESSION_ENABLED;
+	int asyncThreads = DEFAULT_ASYNC_THREADS;
+	int connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+	int socketTimeout = DEFAULT_SOCKET_TIMEOUT;
+	long connectionManagerTimeout = DEFAULT_CONNECTION_MANAGER_TIMEOUT;
+	int missingInstanceCacheSize = DEFAULT_MISSING_INSTANCE_CACHE_SIZE;
+	long missingInstanceCacheTtl = DEFAULT_MISSING_INSTANCE_CACHE_TTL;
+	boolean requestCoalescingEnabled = DEFAULT_REQUEST_COALESCING_ENABLED;
+
+	public int getMaxConnectionsPerHost()
+	{
+		return maxConnectionsPerHost;
+	}
+
+	public int getMaxTotalConnections()
+	{
+		return maxTotalConnections;
+	}
+
+	public long getIdleConnectionTimeout()
+	{
+		return idleConnectionTimeout;
+	}
+
+	public long getMachineStateCacheTtl()
+	{
+		return machineStateCacheTtl;
+	}
+
+	public long getMachineStateFullSyncInterval()
+	{
+		return machineStateFullSyncInterval;
+	}
+
+	public int getListPageSize()
+	{
+		return listPageSize;
+	}
+
+	public int getListPageConcurrency()
+	{
+		return listPageConcurrency;
+	}
+
+	public long getMinJobPollInterval()
+	{
+		return minJobPollInterval;
+	}
+
+	public long getMaxJobPollInterval()
+	{
+		return maxJobPollInterval;
+	}
+
+	public long getMaxJobAge()
+	{
+		return maxJobAge;
+	}
+
+	public double getMaxRequestsPerSecond()
+	{
+		return maxRequestsPerSecond;
+	}
+
+	public int getMaxConcurrentRequests()
+	{
+		return maxConcurrentRequests;
+	}
+
+	public int getMaxRetries()
+	{
+		return maxRetries;
+	}
+
+	public long getRetryBaseDelay()
+	{
+		return retryBaseDelay;
+	}
+
+	public long getRetryMaxDelay()
+	{
+		return retryMaxDelay;
+	}
+
+	public int getCircuitBreakerThreshold()
+	{
+		return circuitBreakerThreshold;
+	}
+
+	public long getCircuitBreakerOpenInterval()
+	{
+		return circuitBreakerOpenInterval;
+	}
+
+	public long getMaxResponseSize()
+	{
+		return maxResponseSize;
+	}
+
+	public ResponseFormat getResponseFormat()
+	{
+		return responseFormat;
+	}
+
+	public boolean isCompressionEnabled()
+	{
+		return compressionEnabled;
+	}
+
+	public int getAsyncThreads()
+	{
+		return asyncThreads;
+	}
+
+	public int getConnectTimeout()
+	{
+		return connectTimeout;
+	}
+
+	public int getSocketTimeout()
+	{
+		return socketTimeout;
+	}
+
+	public long getConnectionManagerTimeout()
+	{
+		return connectionManagerTimeout;
+	}
+
+	public int getMissingInstanceCacheSize()
+	{
+		return missingInstanceCacheSize;
+	}
+
+	public long getMissingInstanceCacheTtl()
+	{
+		return missingInstanceCacheTtl;
+	}
+
+	public boolean isRequestCoalescingEnabled()
+	{
+		return requestCoalescingEnabled;
+	}
+
+	public void setMaxConnectionsPerHost(int maxConnectionsPerHost)
+	{
+		this.maxConnectionsPerHost = maxConnectionsPerHost;
+	}
+
+	public void setMaxTotalConnections(int maxTotalConnections)
+	{
+		this.maxTotalConnections = maxTotalConnections;
+	}
+
+	// milliseconds a pooled connection may sit unused before it is closed
+	public void setIdleConnectionTimeout(long idleConnectionTimeout)
+	{
+		this.idleConnectionTimeout = idleConnectionTimeout;
+	}
+
+	// milliseconds the virtual machine index is used for state lookups before it is synced again; 0 disables the index
+	public void setMachineStateCacheTtl(long machineStateCacheTtl)
+	{
+		this.machineStateCacheTtl = machineStateCacheTtl;
+	}
+
+	// milliseconds between full listings of the account; in between only instances touched by async jobs are
+	// re-listed. A value not above the cache ttl lists the whole account on every refresh.
+	public void setMachineStateFullSyncInterval(long machineStateFullSyncInterval)
+	{
+		this.machineStateFullSyncInterval = machineStateFullSyncInterval;
+	}
+
+	public void setListPageSize(int listPageSize)
+	{
+		this.listPageSize = listPageSize;
+	}
+
+	// number of listVirtualMachines pages fetched in parallel; 1 pages sequentially
+	public void setListPageConcurrency(int listPageConcurrency)
+	{
+		this.listPageConcurrency = listPageConcurrency;
+	}
+
+	// async jobs are polled every min interval, backing off to the max interval while none complete
+	public void setMinJobPollInterval(long minJobPollInterval)
+	{
+		this.minJobPollInterval = minJobPollInterval;
+	}
+
+	public void setMaxJobPollInterval(long maxJobPollInterval)
+	{
+		this.maxJobPollInterval = maxJobPollInterval;
+	}
+
+	// milliseconds after which an async job that never completed is no longer tracked
+	public void setMaxJobAge(long maxJobAge)
+	{
+		this.maxJobAge = maxJobAge;
+	}
+
+	// request rate allowed towards the end point; 0 leaves it unlimited
+	public void setMaxRequestsPerSecond(double maxRequestsPerSecond)
+	{
+		this.maxRequestsPerSecond = maxRequestsPerSecond;
+	}
+
+	// upper bound of the adaptive limit on requests in flight
+	public void setMaxConcurrentRequests(int maxConcurrentRequests)
+	{
+		this.maxConcurrentRequests = maxConcurrentRequests;
+	}
+
+	// times a list or query command is repeated after a transport failure or throttling; 0 disables retries
+	public void setMaxRetries(int maxRetries)
+	{
+		this.maxRetries = maxRetries;
+	}
+
+	// milliseconds; the backoff doubles with every retry up to the max delay, with random jitter
+	public void setRetryBaseDelay(long retryBaseDelay)
+	{
+		this.retryBaseDelay = retryBaseDelay;
+	}
+
+	public void setRetryMaxDelay(long retryMaxDelay)
+	{
+		this.retryMaxDelay = retryMaxDelay;
+	}
+
+	// consecutive transport failures after which requests to the end point fail fast; 0 never opens the breaker
+	public void setCircuitBreakerThreshold(int circuitBreakerThreshold)
+	{
+		this.circuitBreakerThreshold = circuitBreakerThreshold;
+	}
+
+	// milliseconds the breaker stays open before a trial request is let through
+	public void setCircuitBreakerOpenInterval(long circuitBreakerOpenInterval)
+	{
+		this.circuitBreakerOpenInterval = circuitBreakerOpenInterval;
+	}
+
+	// bytes; a response body growing past this fails the request instead of filling the heap
+	public void setMaxResponseSize(long maxResponseSize)
+	{
+		this.maxResponseSize = maxResponseSize;
+	}
+
+	// json responses are smaller and cheaper to parse; both formats yield the same results
+	public void setResponseFormat(ResponseFormat responseFormat)
+	{
+		this.responseFormat = responseFormat;
+	}
+
+	// sends Accept-Encoding: gzip, deflate; servers or proxies that don't compress answer as before
+	public void setCompressionEnabled(boolean compressionEnabled)
+	{
+		this.compressionEnabled = compressionEnabled;
+	}
+
+	// threads running the ...Async calls; calls beyond that wait in a queue without holding a thread
+	public void setAsyncThreads(int asyncThreads)
+	{
+		this.asyncThreads = asyncThreads;
+	}
+
+	// milliseconds to establish a connection to the end point
+	public void setConnectTimeout(int connectTimeout)
+	{
+		this.connectTimeout = connectTimeout;
+	}
+
+	// milliseconds without data on an open connection before the request fails
+	public void setSocketTimeout(int socketTimeout)
+	{
+		this.socketTimeout = socketTimeout;
+	}
+
+	// milliseconds to wait for a free pooled connection
+	public void setConnectionManagerTimeout(long connectionManagerTimeout)
+	{
+		this.connectionManagerTimeout = connectionManagerTimeout;
+	}
+
+	// ids of instances found to no longer exist that are remembered; 0 disables the cache
+	public void setMissingInstanceCacheSize(int missingInstanceCacheSize)
+	{
+		this.missingInstanceCacheSize = missingInstanceCacheSize;
+	}
+
+	// milliseconds an instance found missing is reported as such without asking the management server again
+	public void setMissingInstanceCacheTtl(long missingInstanceCacheTtl)
+	{
+		this.missingInstanceCacheTtl = missingInstanceCacheTtl;
+	}
+
+	// identical list/query commands sent while one is in flight wait for its response instead of being sent again
+	public void setRequestCoalescingEnabled(boolean requestCoalescingEnabled)
+	{
+		this.requestCoalescingEnabled = requestCoalescingEnabled;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "maxConnectionsPerHost=" + maxConnectionsPerHost + ";maxTotalConnections=" + maxTotalConnections
+				+ ";idleConnectionTimeout=" + idleConnectionTimeout + ";machineStateCacheTtl=" + machineStateCacheTtl
+				+ ";machineStateFullSyncInterval=" + machineStateFullSyncInterval
+				+ ";listPageSize=" + listPageSize + ";listPageConcurrency=" + listPageConcurrency
+				+ ";minJobPollInterval=" + minJobPollInterval + ";maxJobPollInterval=" + maxJobPollInterval
+				+ ";maxJobAge=" + maxJobAge + ";maxRequestsPerSecond=" + maxRequestsPerSecond
+				+ ";maxConcurrentRequests=" + maxConcurrentRequests + ";maxRetries=" + maxRetries + ";retryBaseDelay="
+				+ retryBaseDelay + ";retryMaxDelay=" + retryMaxDelay + ";circuitBreakerThreshold="
+				+ circuitBreakerThreshold + ";circuitBreakerOpenInterval=" + circuitBreakerOpenInterval
+				+ ";maxResponseSize=" + maxResponseSize + ";responseFormat=" + responseFormat
+				+ ";compressionEnabled=" + compressionEnabled + ";asyncThreads=" + asyncThreads
+				+ ";connectTimeout=" + connectTimeout + ";socketTimeout=" + socketTimeout
+				+ ";connectionManagerTimeout=" + connectionManagerTimeout + ";missingInstanceCacheSize="
+				+ missingInstanceCacheSize + ";missingInstanceCacheTtl=" + missingInstanceCacheTtl
+				+ ";requestCoalescingEnabled=" + requestCoalescingEnabled;
+	}
+}
@@ -15,174 +15,489 @@
  */
 package com.appdynamics.cloudstack;
 
-import java.net.URLEncoder;
-import java.security.SignatureException;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.PushbackInputStream;
+import java.io.Reader;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.UnknownHostException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ScheduledFuture;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 import java.util.logging.Logger;
 
-import javax.crypto.Mac;
-import javax.crypto.spec.SecretKeySpec;
-
-import org.apache.commons.codec.binary.Base64;
-import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.ConnectTimeoutException;
+import org.apache.commons.httpclient.Header;
 import org.apache.commons.httpclient.methods.GetMethod;
 
 import com.singularity.ee.util.JavaLogging.JavaLogger;
 
 class CloudStackApiClient
 {
-	private Map<String, String> params = new HashMap<String, String>();
+	private RequestParameters params = new RequestParameters();
 	private String command;
-	private String apiKey;
-	private String secretKey;
-	private String apiUrl;
+	private RequestSigner signer;
+	private EndpointRouter router;
+	private Deadline deadline;
+
+	// outcome of the last attempt, reported to the governor and used to decide on a retry
+	private RequestGovernor.Outcome outcome;
+	private boolean errorResponse;
 
-	public CloudStackApiClient(String command, String apiKey, String secretKey, String apiUrl)
+	public CloudStackApiClient(String command, RequestSigner signer, EndpointRouter router, Deadline deadline)
 	{
 		this.command = command;
-		this.apiKey = apiKey;
-		this.secretKey = secretKey;
-		this.apiUrl = apiUrl;
+		this.signer = signer;
+		this.router = router;
+		this.deadline = deadline;
 	}
 
-	public void addParam(String field, String value) throws Exception
+	public void addParam(String field, String value)
 	{
-		if (value != null && value.trim().length() != 0)
-		{
-			params.put(field, encodeUrl(value));
-		}
+		params.put(field, value);
 	}
 
-	public String encodeUrl(String value) throws Exception
+	public void addParams(RequestParameters other)
 	{
-		try
+		params.putAll(other);
+	}
+
+	private static final JavaLogger logger = new JavaLogger(Logger.getLogger(CloudStackClient.class.getName()));
+
+	// sends the command and parses the response body as it streams off the connection
+	public CloudStackResponse execute() throws Exception
+	{
+		final boolean json = router.getResponseFormat() == ResponseFormat.JSON;
+
+		if (json)
 		{
-			if (value != null)
+			params.put("response", "json");
+		}
+
+		final ResponseHandler<CloudStackResponse> handler = new ResponseHandler<CloudStackResponse>()
+		{
+			public CloudStackResponse handle(InputStream body, int statusCode, String charset) throws Exception
 			{
-				return URLEncoder.encode(value.trim(), "UTF-8").replaceAll("\\+", "%20");
+				CloudStackResponse response = json ? JsonResponseParser.parse(body) : XmlResponseParser.parse(body);
+				errorResponse = response.isError();
+
+				if (isThrottled(statusCode, response.getErrorCode()))
+				{
+					outcome = RequestGovernor.Outcome.THROTTLED;
+				}
+
+				return response;
 			}
-			else
+		};
+
+		RequestCoalescer coalescer = router.getCoalescer();
+
+		if (coalescer == null || !RetryPolicy.isReadOnly(command))
+		{
+			return execute(handler);
+		}
+
+		return coalescer.execute(requestKey(), new Callable<CloudStackResponse>()
+		{
+			public CloudStackResponse call() throws Exception
 			{
-				return null;
+				return execute(handler);
 			}
-		}
-		catch (Exception e)
+		}, deadline);
+	}
+
+	// command and parameters in their canonical order, the same for every identical request
+	private String requestKey()
+	{
+		StringBuilder key = new StringBuilder(command);
+
+		for (int i = 0; i < params.size(); i++)
 		{
-			throw e;
+			key.append('&').append(params.getLowerField(i)).append('=').append(params.getEncodedValue(i));
 		}
+
+		return key.toString();
 	}
 
-	private static final JavaLogger logger = new JavaLogger(Logger.getLogger(CloudStackClient.class.getName()));
+	// the whole body as text, still bounded by the response size limit; always xml, whatever the response format
+	public String executeRaw() throws Exception
+	{
+		return execute(new ResponseHandler<String>()
+		{
+			public String handle(InputStream body, int statusCode, String charset) throws Exception
+			{
+				if (body == null)
+				{
+					return null;
+				}
+
+				Reader reader = new InputStreamReader(body, charset);
+				StringBuilder text = new StringBuilder();
+				char[] buffer = new char[4096];
+				int n;
+
+				while ((n = reader.read(buffer)) != -1)
+				{
+					text.append(buffer, 0, n);
+				}
+
+				return text.toString();
+			}
+		});
+	}
+
+	// handler consumes the body of the successful attempt, its result is returned as is. A failed read is sent to
+	// the next best management server right away, a write only when it could not have reached the first one; once
+	// every server failed, the round is retried after a backoff as far as the retry policy allows.
+	<T> T execute(ResponseHandler<T> handler) throws Exception
+	{
+		RetryPolicy retryPolicy = router.getRetryPolicy();
+
+		// signed once, a signature doesn't expire between attempts and doesn't cover the host
+		String query = signer.sign(command, params);
+
+		for (int attempt = 0;; attempt++)
+		{
+			Set<ApiEndpoint> tried = new HashSet<ApiEndpoint>();
+			T response = null;
+			Exception failure = null;
+
+			while (true)
+			{
+				deadline.check(command);
+
+				ApiEndpoint endpoint = router.select(tried);
+
+				if (endpoint == null)
+				{
+					if (failure == null)
+					{
+						throw new CloudStackException("Management server at " + router + " is unavailable, not sending "
+								+ command, 503, "Circuit breaker open");
+					}
+
+					break;
+				}
+
+				tried.add(endpoint);
+				CircuitBreaker circuitBreaker = endpoint.getCircuitBreaker();
+
+				try
+				{
+					response = executeOnce(endpoint, query, handler);
+					circuitBreaker.recordSuccess();
+					failure = null;
+
+					if (outcome != RequestGovernor.Outcome.THROTTLED || !retryPolicy.isRetryable(command, attempt))
+					{
+						return response;
+					}
+
+					// throttled, back off rather than move the load to another server
+					break;
+				}
+				catch (InterruptedException e)
+				{
+					// cancelled while waiting to be sent, the server never saw the request
+					circuitBreaker.recordAbandoned();
+					Thread.currentThread().interrupt();
+					throw e;
+				}
+				catch (Exception e)
+				{
+					if (Thread.currentThread().isInterrupted())
+					{
+						// an asynchronous call was cancelled and its request aborted, that says nothing about the server
+						circuitBreaker.recordAbandoned();
+						throw e;
+					}
+
+					if (deadline.isExpired())
+					{
+						// given up or aborted when the deadline ran out, neither does that
+						circuitBreaker.recordAbandoned();
+
+						if (e instanceof DeadlineExceededException)
+						{
+							throw e;
+						}
+
+						throw new DeadlineExceededException("Deadline expired before " + command + " completed", e);
+					}
+
+					if (!isTransient(e))
+					{
+						// the server answered, it just didn't like the request
+						circuitBreaker.recordSuccess();
+						throw e;
+					}
+
+					circuitBreaker.recordFailure();
+					failure = e;
+
+					if (!RetryPolicy.isReadOnly(command) && !isConnectFailure(e))
+					{
+						// the write may have gone through, sending it again could act on the cloud twice
+						break;
+					}
+
+					logger.debug("Failing over " + command + " from " + endpoint.getAccessUrl(), e);
+				}
+			}
+
+			if (failure != null)
+			{
+				if (!retryPolicy.isRetryable(command, attempt))
+				{
+					throw failure;
+				}
+
+				logger.debug("Retrying " + command + " after a transient failure", failure);
+			}
+
+			long delay = retryPolicy.getDelay(attempt);
+
+			if (delay >= deadline.remaining())
+			{
+				// the retry couldn't complete in time, give up with what the last attempt got
+				if (failure != null)
+				{
+					throw failure;
+				}
+
+				return response;
+			}
 
-	public String execute() throws Exception
+			Thread.sleep(delay);
+		}
+	}
+
+	private <T> T executeOnce(ApiEndpoint endpoint, String query, ResponseHandler<T> handler) throws Exception
 	{
+		RequestGovernor governor = endpoint.getGovernor();
 
-		HttpClient client = null;
+		if (!governor.acquire(deadline.remaining()))
+		{
+			throw new DeadlineExceededException("Deadline expired while " + command + " was waiting to be sent");
+		}
+
+		outcome = RequestGovernor.Outcome.FAILED;
+		errorResponse = false;
 		GetMethod get = null;
+		InputStream body = null;
+		ScheduledFuture<?> abort = null;
+		long start = System.nanoTime();
 
 		try
 		{
+			logger.debug("Sending " + command + " to " + endpoint.getAccessUrl());
+
+			HttpTransport transport = router.getTransport();
 
-			String requestUrl = generateRequestUrl();
-			System.out.println(requestUrl);
-			client = new HttpClient();
-			get = new GetMethod(requestUrl);
-			client.executeMethod(get);
+			get = new GetMethod(endpoint.getApiUrl() + query);
+			ApiFuture.sending(get);
 
-			return get.getResponseBodyAsString();
+			if (deadline.isBounded())
+			{
+				abort = transport.abortAfter(get, deadline.remaining() + 1);
+			}
+
+			if (transport.isCompressionEnabled())
+			{
+				get.setRequestHeader("Accept-Encoding", "gzip, deflate");
+			}
+
+			transport.getHttpClient().executeMethod(get);
+
+			if (isUnavailable(get.getStatusCode()))
+			{
+				// an error page from a proxy or load balancer in front of the management server, not an api response
+				throw new CloudStackException("Management server at " + endpoint.getAccessUrl() + " returned http "
+						+ get.getStatusCode(), get.getStatusCode(), get.getStatusText());
+			}
+
+			int statusCode = get.getStatusCode();
+			errorResponse = statusCode >= 400;
+			outcome = isThrottled(statusCode, 0) ? RequestGovernor.Outcome.THROTTLED
+					: RequestGovernor.Outcome.SUCCEEDED;
+
+			body = decode(get);
+
+			// the limit applies to the decoded body, a small compressed response can't expand past it
+			return handler.handle(body == null ? null : new LimitedInputStream(body, transport.getMaxResponseSize()),
+					statusCode, get.getResponseCharSet());
 		}
 		catch (Exception e)
 		{
-			e.printStackTrace();
+			outcome = outcomeOf(e);
+
+			if (e instanceof LimitedInputStream.ResponseTooLargeException && get != null)
+			{
+				// don't drain the rest of an oversized body just to reuse the connection
+				get.abort();
+			}
+
 			throw e;
 		}
 		finally
 		{
-			get.releaseConnection();
-		}
+			if (abort != null)
+			{
+				abort.cancel(false);
+			}
 
-	}
+			// frees the native zlib buffers of a compressed body now rather than at finalization
+			closeQuietly(body);
 
-	public String generateRequestUrl() throws Exception
-	{
-		int i = 0;
-		StringBuilder commandString = new StringBuilder();
+			// hands the connection back to the pool for reuse
+			if (get != null)
+			{
+				ApiFuture.sent();
+				get.releaseConnection();
+			}
 
-		commandString.append("apiKey=").append(apiKey);
-		commandString.append("&").append("command=").append(command);
+			governor.release(outcome);
 
-		Map<String, String> paramsLowerCase = new HashMap<String, String>();
-		paramsLowerCase.put("apiKey".toLowerCase(), apiKey.toLowerCase());
-		paramsLowerCase.put("command".toLowerCase(), command.toLowerCase());
+			long nanos = System.nanoTime() - start;
 
-		List<String> fields = new ArrayList<String>();
-		fields.add("apiKey".toLowerCase());
-		fields.add("command".toLowerCase());
+			endpoint.getMetrics(command).record(nanos, errorResponse || outcome != RequestGovernor.Outcome.SUCCEEDED,
+					outcome == RequestGovernor.Outcome.THROTTLED);
 
-		for (Map.Entry<String, String> e : params.entrySet())
-		{
-			commandString.append("&");
+			boolean failed = outcome == RequestGovernor.Outcome.FAILED || outcome == RequestGovernor.Outcome.TIMED_OUT;
 
-			String field = e.getKey();
-			String value = e.getValue();
+			// an error response is about the request, only transport failures count against the server; a request
+			// aborted at the deadline or by a cancel says nothing about it either
+			if (!failed || !(deadline.isExpired() || Thread.currentThread().isInterrupted()))
+			{
+				endpoint.getScore().record(nanos, failed);
+			}
+		}
+	}
 
-			commandString.append(encodeUrl(field)).append("=").append((value));
+	// unwraps a gzip or deflate encoded body as it is read
+	private static InputStream decode(GetMethod get) throws IOException
+	{
+		InputStream body = get.getResponseBodyAsStream();
+		Header contentEncoding = get.getResponseHeader("Content-Encoding");
 
-			paramsLowerCase.put(field.toLowerCase(), value.toLowerCase());
-			fields.add(field.toLowerCase());
-			i++;
+		if (body == null || contentEncoding == null)
+		{
+			return body;
 		}
 
-		Collections.sort(fields);
+		String encoding = contentEncoding.getValue().trim().toLowerCase();
 
-		StringBuilder signatureData = new StringBuilder();
+		if (encoding.equals("gzip") || encoding.equals("x-gzip"))
+		{
+			return new GZIPInputStream(body, 8192);
+		}
 
-		for (String s : fields)
+		if (encoding.equals("deflate"))
 		{
-			if (signatureData.length() != 0)
+			// "deflate" should be zlib wrapped, but some servers send a raw deflate stream
+			PushbackInputStream pushback = new PushbackInputStream(body, 2);
+			byte[] header = new byte[2];
+			int n = 0;
+			int read;
+
+			while (n < 2 && (read = pushback.read(header, n, 2 - n)) != -1)
 			{
-				signatureData.append("&");
+				n += read;
 			}
 
-			signatureData.append(s).append("=").append(paramsLowerCase.get(s));
-		}
+			if (n == 0)
+			{
+				return pushback;
+			}
 
-		String signature = calculateRFC2104HMAC(signatureData.toString().toLowerCase(), secretKey);
+			pushback.unread(header, 0, n);
 
-		return apiUrl + commandString.toString() + "&signature=" + encodeUrl(signature);
+			// zlib header: compression method 8 and a check value making the first two bytes a multiple of 31
+			int check = ((header[0] & 0xff) << 8) | (header[1] & 0xff);
+			boolean zlib = n == 2 && (header[0] & 0x0f) == 8 && check % 31 == 0;
+			return new InflaterInputStream(pushback, new Inflater(!zlib), 8192)
+			{
+				// an inflater passed in isn't ended by close()
+				@Override
+				public void close() throws IOException
+				{
+					try
+					{
+						super.close();
+					}
+					finally
+					{
+						inf.end();
+					}
+				}
+			};
+		}
+
+		return body;
 	}
 
-	public String calculateRFC2104HMAC(String data, String key) throws Exception
+	private static void closeQuietly(InputStream body)
 	{
-		String result;
+		if (body == null)
+		{
+			return;
+		}
+
 		try
 		{
+			body.close();
+		}
+		catch (IOException e)
+		{
+			// an aborted or broken connection, releaseConnection discards it
+		}
+	}
 
-			// get an hmac_sha1 key from the raw key bytes
-			SecretKeySpec signingKey = new SecretKeySpec(key.getBytes(), "HmacSHA1");
+	// api.throttling answers with http status and error code 429
+	static boolean isThrottled(int statusCode, int errorCode)
+	{
+		return statusCode == 429 || errorCode == 429;
+	}
 
-			// get an hmac_sha1 Mac instance and initialize with the signing key
-			Mac mac = Mac.getInstance("HmacSHA1");
-			mac.init(signingKey);
+	private static boolean isUnavailable(int statusCode)
+	{
+		return statusCode == 502 || statusCode == 503 || statusCode == 504;
+	}
 
-			// compute the hmac on input data bytes
-			byte[] rawHmac = mac.doFinal(data.getBytes());
+	// failures where the same request may well succeed a moment later
+	private static boolean isTransient(Exception e)
+	{
+		if (e instanceof LimitedInputStream.ResponseTooLargeException)
+		{
+			return false;
+		}
 
-			// base64-encode the hmac
-			// result = Base64.encode(rawHmac);
-			result = new String(Base64.encodeBase64(rawHmac));
+		return e instanceof IOException
+				|| (e instanceof CloudStackException && isUnavailable(((CloudStackException) e).getErrorCode()));
+	}
 
-			return result.trim();
-		}
-		catch (Exception e)
+	// the request never reached the server, so even a write can safely go to another one
+	private static boolean isConnectFailure(Exception e)
+	{
+		return e instanceof ConnectException || e instanceof NoRouteToHostException
+				|| e instanceof UnknownHostException || e instanceof ConnectTimeoutException;
+	}
+
+	private static RequestGovernor.Outcome outcomeOf(Exception e)
+	{
+		// socket read, connect and connection pool timeouts
+		if (e instanceof InterruptedIOException)
 		{
-			throw new SignatureException("Failed to generate HMAC : " + e.getMessage());
+			return RequestGovernor.Outcome.TIMED_OUT;
 		}
 
-		// return encodeUrl(result);
+		return RequestGovernor.Outcome.FAILED;
 	}
 }
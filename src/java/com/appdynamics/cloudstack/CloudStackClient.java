@@ -18,41 +18,164 @@ package com.appdynamics.cloudstack;
 import java.io.ByteArrayInputStream;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 
 import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.NodeList;
 
 public class CloudStackClient
 {
 	private final String DEPLOY_VIRTUALMACHINE = "deployVirtualMachine";
 	private final String REBOOT_VIRTUALMACHINE = "rebootVirtualMachine";
+	private final String UPDATE_VIRTUALMACHINE = "updateVirtualMachine";
+	private final String START_VIRTUALMACHINE = "startVirtualMachine";
 	private final String DESTROY_VIRTUALMACHINE = "destroyVirtualMachine";
 	private final String LIST_VIRTUALMACHINE = "listVirtualMachines";
+	private final String LIST_ASYNCJOBS = "listAsyncJobs";
+	private final String QUERY_ASYNCJOBRESULT = "queryAsyncJobResult";
 
-	private String apiKey;
-	private String secretKey;
+	private RequestSigner signer;
 	private String accessUrl;
-	private String apiUrl;
+	private HttpTransport transport;
+	private EndpointRouter router;
+	private VirtualMachineIndex index;
+	private int listPageSize;
+	private int listPageConcurrency;
+	private ExecutorService listExecutor;
+	private ExecutorService asyncExecutor;
+	private AsyncJobTracker jobTracker;
+	private MissingInstanceCache missingInstances;
+	private Deadline deadline = Deadline.NONE;
+	private boolean view;
 
 	public CloudStackClient(String apiKey, String secretKey, String accessUrl)
 	{
-		this.apiKey = apiKey;
-		this.secretKey = secretKey;
+		this(apiKey, secretKey, accessUrl, new ClientOptions());
+	}
+
+	// accessUrl may list several management servers of the same cloud, separated by commas
+	public CloudStackClient(String apiKey, String secretKey, String accessUrl, ClientOptions options)
+	{
+		this.signer = new RequestSigner(apiKey, secretKey);
 		this.accessUrl = accessUrl;
-		this.apiUrl = accessUrl + "/api?";
+		this.transport = new HttpTransport(options);
+
+		// each management server paces and trips its own requests, api.throttling counts per server
+		List<ApiEndpoint> endpoints = new ArrayList<ApiEndpoint>();
+
+		for (String url : accessUrl.split(","))
+		{
+			if (url.trim().length() > 0)
+			{
+				endpoints.add(new ApiEndpoint(url.trim(),
+						new RequestGovernor(options.getMaxRequestsPerSecond(), options.getMaxConcurrentRequests()),
+						new CircuitBreaker(options.getCircuitBreakerThreshold(),
+								options.getCircuitBreakerOpenInterval())));
+			}
+		}
+
+		this.router = new EndpointRouter(endpoints, transport,
+				new RetryPolicy(options.getMaxRetries(), options.getRetryBaseDelay(), options.getRetryMaxDelay()),
+				options.getResponseFormat(), options.isRequestCoalescingEnabled() ? new RequestCoalescer() : null);
+
+		this.listPageSize = options.getListPageSize();
+		this.listPageConcurrency = options.getListPageConcurrency();
+
+		if (listPageConcurrency > 1)
+		{
+			// shared by all the client's listings, however many run at once the prefetches use this many threads
+			this.listExecutor = Executors.newFixedThreadPool(listPageConcurrency,
+					new DaemonThreadFactory("cloudstack-list-pages"));
+		}
+
+		this.asyncExecutor = Executors.newFixedThreadPool(Math.max(1, options.getAsyncThreads()),
+				new DaemonThreadFactory("cloudstack-async"));
+
+		this.missingInstances = new MissingInstanceCache(options.getMissingInstanceCacheSize(),
+				options.getMissingInstanceCacheTtl());
+
+		this.jobTracker = new AsyncJobTracker(this, options.getMinJobPollInterval(), options.getMaxJobPollInterval(),
+				options.getMaxJobAge());
+
+		if (options.getMachineStateCacheTtl() > 0)
+		{
+			this.index = new VirtualMachineIndex(this, options.getMachineStateCacheTtl(),
+					options.getMachineStateFullSyncInterval());
+
+			// a finished job changes the state of its instance, don't serve the old one until the ttl runs out
+			jobTracker.addListener(new AsyncJobListener()
+			{
+				public void jobCompleted(AsyncJob job)
+				{
+					index.markDirty(job.getInstanceId());
+				}
+			});
+		}
+	}
+
+	// shares everything with the parent client, only the calls made through it are bounded by the deadline
+	private CloudStackClient(CloudStackClient parent, Deadline deadline)
+	{
+		this.signer = parent.signer;
+		this.accessUrl = parent.accessUrl;
+		this.transport = parent.transport;
+		this.router = parent.router;
+		this.index = parent.index;
+		this.listPageSize = parent.listPageSize;
+		this.listPageConcurrency = parent.listPageConcurrency;
+		this.listExecutor = parent.listExecutor;
+		this.asyncExecutor = parent.asyncExecutor;
+		this.jobTracker = parent.jobTracker;
+		this.missingInstances = parent.missingInstances;
+		this.deadline = deadline;
+		this.view = true;
+	}
+
+	// a view of this client whose calls, retries included, fail with DeadlineExceededException once the deadline
+	// passes; requests still in flight at that point are aborted. Background work of the client is not affected.
+	public CloudStackClient withDeadline(Deadline deadline)
+	{
+		return new CloudStackClient(this, deadline);
+	}
+
+	// closes the pooled connections; the client must not be used afterwards
+	public void shutdown()
+	{
+		if (view)
+		{
+			// the parent client owns the connections and threads
+			return;
+		}
+
+		if (listExecutor != null)
+		{
+			listExecutor.shutdownNow();
+		}
+
+		for (Runnable queued : asyncExecutor.shutdownNow())
+		{
+			// never started, complete them as cancelled rather than leave callers waiting
+			((Future<?>) queued).cancel(false);
+		}
+
+		jobTracker.shutdown();
+
+		transport.shutdown();
 	}
 
 	public boolean authenticate()
 	{
 		try
 		{
-			listServerIds();
+			// a one entry page is enough to prove the credentials, no need to list the whole account
+			listVirtualMachinesPage(1, 1);
 			return true;
 		}
 		catch (Exception e)
@@ -66,76 +189,109 @@ public class CloudStackClient
 	public Server deployVirtualMachine(String serviceOfferingId, String templateId, String zoneId,
 			CreateServerOptions options) throws Exception
 	{
-		CloudStackApiClient client = new CloudStackApiClient(DEPLOY_VIRTUALMACHINE, apiKey, secretKey, apiUrl);
-		client.addParam("serviceofferingid", serviceOfferingId);
-		client.addParam("templateid", templateId);
-		client.addParam("zoneid", zoneId);
-		client.addParam("account", options.getAccount());
-		client.addParam("diskofferingid", options.getDiskOfferingId());
-		client.addParam("displayname", options.getDisplayName());
-		client.addParam("domainid", options.getDomainId());
-		client.addParam("group", options.getGroup());
-		client.addParam("hostid", options.getHostId());
-		client.addParam("hypervisor", options.getHypervisor());
-		client.addParam("ipaddress", options.getIpAddress());
-		
-		client.addParam("keyboard", options.getKeyboard());
-		client.addParam("keypair", options.getKeyPair());
-		client.addParam("name", options.getName());
-		client.addParam("networkids", options.getNetWorkIds());
-		client.addParam("projectid", options.getProjectId());
-		client.addParam("securitygroupids", options.getSecurityGroupIds());
-		client.addParam("securitygroupnames", options.getSize());
-		client.addParam("userdata", options.getUserData());
-		client.addParam("size", options.getSize());
-
-		int i = 0;
-		
-		for(Map.Entry<String, String> entry: options.getIpToNetworkList().entrySet())
-		{
-			client.addParam("iptonetworklist[" + i + "].ip", entry.getKey());
-			client.addParam("iptonetworklist[" + i + "].networkid", entry.getValue());
-			i++;
-		}
-		
-		String response = client.execute();
-
-		if (containsErrorMessage(response))
-		{
-			throw new Exception("Error deploying virtual machine. Response: " + getErrorMessage(response));
-		}
-
-		Document doc = stringToXmlDocument(response);
-		String id = doc.getElementsByTagName("id").item(0).getTextContent().trim();
+		return deployVirtualMachine(new DeploymentParameters(serviceOfferingId, templateId, zoneId, options),
+				options.getDisplayName(), options.getUserData());
+	}
+
+	// deploys from a prebuilt parameter block; userData must already be base64 encoded
+	public Server deployVirtualMachine(DeploymentParameters parameters, String displayName, String userData)
+			throws Exception
+	{
+		return deployVirtualMachine(parameters, displayName, userData, true);
+	}
+
+	// with start false the instance is created stopped, to be started later with startVirtualMachine
+	public Server deployVirtualMachine(DeploymentParameters parameters, String displayName, String userData,
+			boolean start) throws Exception
+	{
+		CloudStackApiClient client = new CloudStackApiClient(DEPLOY_VIRTUALMACHINE, signer, router, deadline);
+		client.addParams(parameters.getParameters());
+		client.addParam("displayname", displayName);
+		client.addParam("userdata", userData);
+
+		if (!start)
+		{
+			client.addParam("startvm", "false");
+		}
+
+		CloudStackResponse response = client.execute();
+
+		if (response.isError())
+		{
+			throw response.toException("Error deploying virtual machine. Response: ");
+		}
+
+		Server server = new Server();
+		server.setId(response.getId());
+		server.setJobId(response.getJobId());
+		track(response.getJobId(), response.getId());
+		return server;
+	}
+
+	// sets the display name and base64 encoded user data of a stopped instance; null values are left unchanged
+	public void updateVirtualMachine(String id, String displayName, String userData) throws Exception
+	{
+		CloudStackApiClient client = new CloudStackApiClient(UPDATE_VIRTUALMACHINE, signer, router, deadline);
+		client.addParam("id", id);
+		client.addParam("displayname", displayName);
+		client.addParam("userdata", userData);
+		CloudStackResponse response = client.execute();
+
+		if (response.isError())
+		{
+			throw response.toException("Error updating instance with id:" + id + " Response:");
+		}
+
+		if (index != null)
+		{
+			index.markDirty(id);
+		}
+	}
+
+	public Server startVirtualMachine(String id) throws Exception
+	{
+		CloudStackApiClient client = new CloudStackApiClient(START_VIRTUALMACHINE, signer, router, deadline);
+		client.addParam("id", id);
+		CloudStackResponse response = client.execute();
+
+		if (response.isError())
+		{
+			throw response.toException("Error starting instance with id:" + id + " Response:");
+		}
 
 		Server server = new Server();
 		server.setId(id);
+		server.setJobId(response.getJobId());
+		track(response.getJobId(), id);
 		return server;
 	}
 
 	public boolean rebootVirtualMachine(String id) throws Exception
 	{
-		CloudStackApiClient client = new CloudStackApiClient(REBOOT_VIRTUALMACHINE, apiKey, secretKey, apiUrl);
+		CloudStackApiClient client = new CloudStackApiClient(REBOOT_VIRTUALMACHINE, signer, router, deadline);
 		client.addParam("id", id);
-		String response = client.execute();
+		CloudStackResponse response = client.execute();
+		track(response.getJobId(), id);
 
-		Document doc = stringToXmlDocument(response);
-		return doc.getElementsByTagName("jobid").getLength() > 0;
+		return response.getJobId() != null;
 	}
 
 	public boolean terminateVirtualMachine(String id) throws Exception
 	{
-		CloudStackApiClient client = new CloudStackApiClient(DESTROY_VIRTUALMACHINE, apiKey, secretKey, apiUrl);
+		if (missingInstances.isMissing(id))
+		{
+			return true;
+		}
+
+		CloudStackApiClient client = new CloudStackApiClient(DESTROY_VIRTUALMACHINE, signer, router, deadline);
 		client.addParam("id", id);
-		String response = client.execute();
+		CloudStackResponse response = client.execute();
 
-		if (containsErrorMessage(response))
+		if (response.isError())
 		{
-			List<String> vms = listServerIds();
-
-			if (vms.contains(id))
+			if (exists(id))
 			{
-				throw new Exception("Error terminating instance with id:" + id + " Response:" + getErrorMessage(response));
+				throw response.toException("Error terminating instance with id:" + id + " Response:");
 			}
 			else
 			{
@@ -144,118 +300,535 @@ public class CloudStackClient
 
 		}
 
-		Document doc = stringToXmlDocument(response);
-		return doc.getElementsByTagName("jobid").getLength() > 0;
+		track(response.getJobId(), id);
+		return response.getJobId() != null;
+	}
+
+	// The ...Async variants run the same calls on the client's async threads and return at once. Cancelling the
+	// future aborts the request in flight; get(timeout, unit) bounds the wait without cancelling.
+
+	public ApiFuture<Server> deployVirtualMachineAsync(final String serviceOfferingId, final String templateId,
+			final String zoneId, final CreateServerOptions options)
+	{
+		return submit(new Callable<Server>()
+		{
+			public Server call() throws Exception
+			{
+				return deployVirtualMachine(serviceOfferingId, templateId, zoneId, options);
+			}
+		});
+	}
+
+	public ApiFuture<Server> deployVirtualMachineAsync(final DeploymentParameters parameters,
+			final String displayName, final String userData)
+	{
+		return submit(new Callable<Server>()
+		{
+			public Server call() throws Exception
+			{
+				return deployVirtualMachine(parameters, displayName, userData);
+			}
+		});
+	}
+
+	public ApiFuture<Server> startVirtualMachineAsync(final String id)
+	{
+		return submit(new Callable<Server>()
+		{
+			public Server call() throws Exception
+			{
+				return startVirtualMachine(id);
+			}
+		});
+	}
+
+	public ApiFuture<Boolean> rebootVirtualMachineAsync(final String id)
+	{
+		return submit(new Callable<Boolean>()
+		{
+			public Boolean call() throws Exception
+			{
+				return rebootVirtualMachine(id);
+			}
+		});
+	}
+
+	public ApiFuture<Boolean> terminateVirtualMachineAsync(final String id)
+	{
+		return submit(new Callable<Boolean>()
+		{
+			public Boolean call() throws Exception
+			{
+				return terminateVirtualMachine(id);
+			}
+		});
+	}
+
+	// completes with null when the instance no longer exists
+	public ApiFuture<ServerStatus> getServerStatusAsync(final String id)
+	{
+		return submit(new Callable<ServerStatus>()
+		{
+			public ServerStatus call() throws Exception
+			{
+				return getServerStatus(id);
+			}
+		});
+	}
+
+	// completes with null when the instance no longer exists
+	public ApiFuture<VirtualMachine> getVirtualMachineAsync(final String id)
+	{
+		return submit(new Callable<VirtualMachine>()
+		{
+			public VirtualMachine call() throws Exception
+			{
+				return getVirtualMachine(id);
+			}
+		});
+	}
+
+	public ApiFuture<List<String>> listIpAddressAsync(final String id)
+	{
+		return submit(new Callable<List<String>>()
+		{
+			public List<String> call() throws Exception
+			{
+				return listIpAddress(id);
+			}
+		});
+	}
+
+	public ApiFuture<List<String>> listServerIdsAsync()
+	{
+		return submit(new Callable<List<String>>()
+		{
+			public List<String> call() throws Exception
+			{
+				return listServerIds();
+			}
+		});
+	}
+
+	private <T> ApiFuture<T> submit(Callable<T> call)
+	{
+		ApiFuture<T> future = new ApiFuture<T>(call);
+		asyncExecutor.execute(future);
+		return future;
+	}
+
+	// the tracked deploy/destroy/reboot job, null once it has completed or if it was never tracked
+	public AsyncJobFuture getJob(String jobId)
+	{
+		return jobTracker.getJob(jobId);
+	}
+
+	// the outstanding deploy/destroy/reboot job acting on the server, null if there is none
+	public AsyncJobFuture getPendingJob(String serverId)
+	{
+		return jobTracker.getJobForInstance(serverId);
+	}
+
+	// true while a deploy/destroy/reboot job on the server is outstanding and its completion is being followed
+	public boolean hasPendingJob(String serverId)
+	{
+		return jobTracker.isHealthy() && jobTracker.getJobForInstance(serverId) != null;
+	}
+
+	private void track(String jobId, String serverId)
+	{
+		if (jobId != null)
+		{
+			jobTracker.track(jobId, serverId);
+
+			if (index != null)
+			{
+				index.markDirty(serverId);
+			}
+		}
+	}
+
+	// one page of the jobs created at or after startDate; count tells whether there are more
+	CloudStackResponse listAsyncJobsSince(String startDate) throws Exception
+	{
+		CloudStackApiClient client = new CloudStackApiClient(LIST_ASYNCJOBS, signer, router, deadline);
+		client.addParam("startdate", startDate);
+		client.addParam("page", "1");
+		client.addParam("pagesize", String.valueOf(listPageSize));
+		CloudStackResponse response = client.execute();
+
+		if (response.isError())
+		{
+			throw response.toException("Error listing async jobs. Response:");
+		}
+
+		return response;
+	}
+
+	// null if the management server no longer knows the job
+	AsyncJob queryAsyncJobResult(String jobId) throws Exception
+	{
+		CloudStackApiClient client = new CloudStackApiClient(QUERY_ASYNCJOBRESULT, signer, router, deadline);
+		client.addParam("jobid", jobId);
+		CloudStackResponse response = client.execute();
+
+		if (response.isError())
+		{
+			if (response.getErrorCode() == 431)
+			{
+				AsyncJob job = new AsyncJob();
+				job.setJobId(jobId);
+				job.setStatus(AsyncJob.Status.FAILED);
+				job.setErrorText(response.getErrorText());
+				return job;
+			}
+
+			throw response.toException("Error querying async job " + jobId + ". Response:");
+		}
+
+		return response.getAsyncJobs().isEmpty() ? null : response.getAsyncJobs().get(0);
 	}
 
+	// the raw listVirtualMachines response
+	@Deprecated
 	public String getServer(String id) throws Exception
 	{
-		CloudStackApiClient client = new CloudStackApiClient(LIST_VIRTUALMACHINE, apiKey, secretKey, apiUrl);
+		CloudStackApiClient client = new CloudStackApiClient(LIST_VIRTUALMACHINE, signer, router, deadline);
 		client.addParam("id", id);
-		String response = client.execute();
+		String response = client.executeRaw();
 
 		return response;
 	}
 
 	public List<String> listServerIds() throws Exception
 	{
-		CloudStackApiClient client = new CloudStackApiClient(LIST_VIRTUALMACHINE, apiKey, secretKey, apiUrl);
-		String response = client.execute();
+		List<String> vmIds = new ArrayList<String>();
+		Iterator<String> ids = iterateServerIds();
 
-		if (containsErrorMessage(response))
+		try
 		{
-			throw new Exception("Error retrieving Servers. Response:" + getErrorMessage(response));
+			while (ids.hasNext())
+			{
+				vmIds.add(ids.next());
+			}
+		}
+		catch (VirtualMachineIterator.ListingException e)
+		{
+			throw (Exception) e.getCause();
 		}
 
-		Document doc = stringToXmlDocument(response);
-		NodeList vms = doc.getElementsByTagName("virtualmachine");
+		return vmIds;
 
-		List<String> vmIds = new ArrayList<String>();
+	}
+
+	// lazily pages through the account's instances; listing failures surface as an IllegalStateException
+	public Iterator<String> iterateServerIds()
+	{
+		final Iterator<VirtualMachine> vms = iterateVirtualMachines();
+
+		return new Iterator<String>()
+		{
+			public boolean hasNext()
+			{
+				return vms.hasNext();
+			}
+
+			public String next()
+			{
+				return vms.next().getId();
+			}
+
+			public void remove()
+			{
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
 
-		for (int i = 0; i < vms.getLength(); i++)
+	Iterator<VirtualMachine> iterateVirtualMachines()
+	{
+		return new VirtualMachineIterator(this, listPageSize, listPageConcurrency, listExecutor);
+	}
+
+	List<VirtualMachine> listVirtualMachines() throws Exception
+	{
+		List<VirtualMachine> vms = new ArrayList<VirtualMachine>();
+		Iterator<VirtualMachine> iterator = iterateVirtualMachines();
+
+		try
+		{
+			while (iterator.hasNext())
+			{
+				vms.add(iterator.next());
+			}
+		}
+		catch (VirtualMachineIterator.ListingException e)
 		{
-			vmIds.add(((Element) vms.item(i)).getElementsByTagName("id").item(0).getTextContent().trim());
+			throw (Exception) e.getCause();
 		}
 
-		return vmIds;
+		return vms;
+	}
+
+	CloudStackResponse listVirtualMachinesPage(int page, int pageSize) throws Exception
+	{
+		CloudStackApiClient client = new CloudStackApiClient(LIST_VIRTUALMACHINE, signer, router, deadline);
+		client.addParam("page", String.valueOf(page));
+		client.addParam("pagesize", String.valueOf(pageSize));
+		CloudStackResponse response = client.execute();
+
+		if (response.isError())
+		{
+			throw response.toException("Error retrieving Servers. Response:");
+		}
 
+		return response;
 	}
 
-	public List<String> listIpAddress(String id) throws Exception
+	// instances whose name or display name contains keyword, all pages of them
+	public List<VirtualMachine> findVirtualMachines(String keyword) throws Exception
 	{
-		String response = getServer(id);
+		List<VirtualMachine> vms = new ArrayList<VirtualMachine>();
 
-		if (containsErrorMessage(response))
+		for (int page = 1;; page++)
 		{
-			throw new Exception("Error retrieving ip address for instance id:" + id);
+			CloudStackApiClient client = new CloudStackApiClient(LIST_VIRTUALMACHINE, signer, router, deadline);
+			client.addParam("keyword", keyword);
+			client.addParam("page", String.valueOf(page));
+			client.addParam("pagesize", String.valueOf(listPageSize));
+			CloudStackResponse response = client.execute();
+
+			if (response.isError())
+			{
+				throw response.toException("Error retrieving Servers. Response:");
+			}
+
+			List<VirtualMachine> listed = response.getVirtualMachines();
+			vms.addAll(listed);
+
+			if (listed.size() < listPageSize || (response.getCount() >= 0 && vms.size() >= response.getCount()))
+			{
+				return vms;
+			}
 		}
+	}
 
-		Document doc = stringToXmlDocument(response);
+	// the listed instances among ids, in one request unless one of them is unknown to the management server
+	List<VirtualMachine> listVirtualMachines(List<String> ids) throws Exception
+	{
+		StringBuilder joined = new StringBuilder();
+		List<String> lookedUp = new ArrayList<String>();
+
+		for (String id : ids)
+		{
+			if (missingInstances.isMissing(id))
+			{
+				continue;
+			}
+
+			if (joined.length() > 0)
+			{
+				joined.append(',');
+			}
+
+			joined.append(id);
+			lookedUp.add(id);
+		}
+
+		if (lookedUp.isEmpty())
+		{
+			return new ArrayList<VirtualMachine>();
+		}
+
+		CloudStackApiClient client = new CloudStackApiClient(LIST_VIRTUALMACHINE, signer, router, deadline);
+		client.addParam("ids", joined.toString());
+		client.addParam("page", "1");
+		client.addParam("pagesize", String.valueOf(lookedUp.size()));
+		CloudStackResponse response = client.execute();
+
+		if (response.isError())
+		{
+			// an expunged instance fails the whole request with 431, find it one id at a time
+			if (response.getErrorCode() == 431)
+			{
+				List<VirtualMachine> vms = new ArrayList<VirtualMachine>();
+
+				for (String id : lookedUp)
+				{
+					VirtualMachine vm = getVirtualMachine(id);
+
+					if (vm != null)
+					{
+						vms.add(vm);
+					}
+				}
+
+				return vms;
+			}
+
+			throw response.toException("Error retrieving Servers. Response:");
+		}
+
+		return response.getVirtualMachines();
+	}
+
+	// looks up the one instance with the smallest response the api offers; an instance found missing is remembered
+	// so further lookups of it cost nothing
+	private boolean exists(String id) throws Exception
+	{
+		if (missingInstances.isMissing(id))
+		{
+			return false;
+		}
+
+		CloudStackApiClient client = new CloudStackApiClient(LIST_VIRTUALMACHINE, signer, router, deadline);
+		client.addParam("id", id);
+		client.addParam("details", "min");
+		CloudStackResponse response = client.execute();
+
+		if (response.isError())
+		{
+			// 431 is what the management server answers for an id it doesn't know
+			if (response.getErrorCode() != 431)
+			{
+				throw response.toException("Error looking up instance with id:" + id + " Response:");
+			}
+		}
+		else if (!response.getVirtualMachines().isEmpty())
+		{
+			return true;
+		}
+
+		missingInstances.markMissing(id);
+		return false;
+	}
+
+	public List<String> listIpAddress(String id) throws Exception
+	{
+		CloudStackResponse response = listVirtualMachine(id);
+
+		if (response.isError())
+		{
+			throw response.toException("Error retrieving ip address for instance id:" + id + " Response:");
+		}
 
-		NodeList list = doc.getElementsByTagName("ipaddress");
 		List<String> ips = new ArrayList<String>();
 
-		for (int i = 0; i < list.getLength(); i++)
+		for (VirtualMachine vm : response.getVirtualMachines())
 		{
-			ips.add(list.item(i).getTextContent().trim());
+			ips.addAll(vm.getIpAddresses());
 		}
 
 		return ips;
 	}
 
+	// returns null when the instance no longer exists
 	public ServerStatus getServerStatus(String id) throws Exception
 	{
-		String response = getServer(id);
+		VirtualMachine vm = getVirtualMachine(id);
+
+		return vm == null ? null : vm.getStatus();
+	}
 
-		if (containsErrorMessage(response))
+	// state, addresses and placement of the instance from a single request; null when it no longer exists
+	public VirtualMachine getVirtualMachine(String id) throws Exception
+	{
+		if (missingInstances.isMissing(id))
 		{
-			if (!listServerIds().contains(id))
+			return null;
+		}
+
+		CloudStackResponse response = listVirtualMachine(id);
+
+		if (response.isError())
+		{
+			if (response.getErrorCode() == 431)
+			{
+				// the same lookup exists() would send, no need to repeat it
+				missingInstances.markMissing(id);
+				return null;
+			}
+
+			if (!exists(id))
 			{
 				return null;
 			}
 			else
 			{
-				throw new Exception("Error retrieving instance status with id:" + id);
+				throw response.toException("Error retrieving instance with id:" + id + " Response:");
 			}
 		}
 
-		Document doc = stringToXmlDocument(response);
-		String status = doc.getElementsByTagName("state").item(0).getTextContent().trim();
-
-		try
+		if (response.getVirtualMachines().isEmpty())
 		{
-			return ServerStatus.valueOf(status.toUpperCase().trim());
+			missingInstances.markMissing(id);
+			return null;
 		}
-		catch (Exception e)
+
+		return response.getVirtualMachines().get(0);
+	}
+
+	// same as getVirtualMachine, but answered from the account wide index when the instance is listed there
+	public VirtualMachine getCachedVirtualMachine(String id) throws Exception
+	{
+		VirtualMachine vm = index == null ? null : index.get(id);
+
+		if (vm == null)
 		{
-			return ServerStatus.UNKOWN;
+			return getVirtualMachine(id);
 		}
 
+		return vm;
 	}
 
-	// error messages contains message tags in the format of i.e.<message> The resource could not be found. </message>
-	public static boolean containsErrorMessage(String response) throws Exception
+	// same as getServerStatus, but answered from the account wide index when the instance is listed there
+	public ServerStatus getCachedServerStatus(String id) throws Exception
 	{
-		if (response != null && response.trim().length() != 0)
-		{
-			Document doc = stringToXmlDocument(response);
+		VirtualMachine vm = getCachedVirtualMachine(id);
 
-			return (doc.getElementsByTagName("errortext").getLength() != 0);
+		return vm == null ? null : vm.getStatus();
+	}
+
+	// same as listIpAddress, but answered from the account wide index when the instance is listed there
+	public List<String> getCachedIpAddress(String id) throws Exception
+	{
+		VirtualMachine vm = index == null ? null : index.get(id);
+
+		if (vm == null)
+		{
+			return listIpAddress(id);
 		}
 
-		return true;
+		return vm.getIpAddresses();
+	}
+
+	private CloudStackResponse listVirtualMachine(String id) throws Exception
+	{
+		CloudStackApiClient client = new CloudStackApiClient(LIST_VIRTUALMACHINE, signer, router, deadline);
+		client.addParam("id", id);
+
+		return client.execute();
+	}
+
+	// error messages contains message tags in the format of i.e.<message> The resource could not be found. </message>
+	public static boolean containsErrorMessage(String response) throws Exception
+	{
+		return parse(response).isError();
 	}
 
 	public static String getErrorMessage(String response) throws Exception
+	{
+		return parse(response).getErrorText();
+	}
+
+	private static CloudStackResponse parse(String response) throws Exception
 	{
 		if (response == null || response.trim().length() == 0)
 		{
-			return "Null response from server";
+			return CloudStackResponse.nullResponse();
 		}
 
-		Document doc = stringToXmlDocument(response);
-
-		return doc.getElementsByTagName("errortext").item(0).getTextContent().trim();
+		return XmlResponseParser.parse(new ByteArrayInputStream(response.getBytes("UTF-8")));
 	}
 
 	public static Document stringToXmlDocument(String document) throws Exception
@@ -0,0 +1,42 @@
+/**
+ * Copyright 2013 AppDynamics, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.appdynamics.cloudstack;
+
+// error reported by the management server, i.e. a response carrying <errorcode> and <errortext>
+public class CloudStackException extends Exception
+{
+	private static final long serialVersionUID = 1L;
+
+	private final int errorCode;
+	private final String errorText;
+
+	public CloudStackException(String message, int errorCode, String errorText)
+	{
+		super(message);
+		this.errorCode = errorCode;
+		this.errorText = errorText;
+	}
+
+	public int getErrorCode()
+	{
+		return errorCode;
+	}
+
+	public String getErrorText()
+	{
+		return errorText;
+	}
+}
@@ -0,0 +1,137 @@
+/**
+ * Copyright 2013 AppDynamics, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.appdynamics.cloudstack;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// the fields CloudStackClient needs from an api response, extracted in a single parse
+class CloudStackResponse
+{
+	static final String NULL_RESPONSE = "Null response from server";
+
+	// longest error text copied into an exception message
+	private static final int MAX_MESSAGE_ERROR_TEXT = 1024;
+
+	private int errorCode;
+	private String errorText;
+	private String id;
+	private String jobId;
+	private int count = -1;
+	private final List<VirtualMachine> virtualMachines = new ArrayList<VirtualMachine>();
+	private final List<AsyncJob> asyncJobs = new ArrayList<AsyncJob>();
+
+	static CloudStackResponse nullResponse()
+	{
+		CloudStackResponse response = new CloudStackResponse();
+		response.setErrorText(NULL_RESPONSE);
+		return response;
+	}
+
+	boolean isError()
+	{
+		return errorText != null;
+	}
+
+	int getErrorCode()
+	{
+		return errorCode;
+	}
+
+	String getErrorText()
+	{
+		return errorText;
+	}
+
+	// id of the created/affected resource; falls back to the first listed virtual machine
+	String getId()
+	{
+		if (id == null && !virtualMachines.isEmpty())
+		{
+			return virtualMachines.get(0).getId();
+		}
+
+		return id;
+	}
+
+	String getJobId()
+	{
+		return jobId;
+	}
+
+	// total number of entries reported by a list command, -1 when absent
+	int getCount()
+	{
+		return count;
+	}
+
+	List<VirtualMachine> getVirtualMachines()
+	{
+		return virtualMachines;
+	}
+
+	List<AsyncJob> getAsyncJobs()
+	{
+		return asyncJobs;
+	}
+
+	CloudStackException toException(String message)
+	{
+		String text = errorText;
+
+		if (text != null && text.length() > MAX_MESSAGE_ERROR_TEXT)
+		{
+			text = text.substring(0, MAX_MESSAGE_ERROR_TEXT) + "...";
+		}
+
+		return new CloudStackException(message + text, errorCode, errorText);
+	}
+
+	void setErrorCode(int errorCode)
+	{
+		this.errorCode = errorCode;
+	}
+
+	void setErrorText(String errorText)
+	{
+		this.errorText = errorText;
+	}
+
+	void setId(String id)
+	{
+		this.id = id;
+	}
+
+	void setJobId(String jobId)
+	{
+		this.jobId = jobId;
+	}
+
+	void setCount(int count)
+	{
+		this.count = count;
+	}
+
+	void addVirtualMachine(VirtualMachine virtualMachine)
+	{
+		virtualMachines.add(virtualMachine);
+	}
+
+	void addAsyncJob(AsyncJob asyncJob)
+	{
+		asyncJobs.add(asyncJob);
+	}
+}
@@ -0,0 +1,38 @@
+/**
+ * Copyright 2013 AppDynamics, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.appdynamics.cloudstack;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// background threads of the client must never keep the controller from shutting down
+class DaemonThreadFactory implements ThreadFactory
+{
+	private final String name;
+	private final AtomicInteger count = new AtomicInteger();
+
+	DaemonThreadFactory(String name)
+	{
+		this.name = name;
+	}
+
+	public Thread newThread(Runnable r)
+	{
+		Thread thread = new Thread(r, name + "-" + count.incrementAndGet());
+		thread.setDaemon(true);
+		return thread;
+	}
+}
@@ -0,0 +1,73 @@
+/**
+ * Copyright 2013 AppDynamics, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.appdynamics.cloudstack;
+
+// Point in time by which a call, retries and backoff included, must have completed. Handed to
+// CloudStackClient.withDeadline so several calls making up one operation share a single time budget.
+public final class Deadline
+{
+	// never expires; calls are then bounded only by the connect and socket timeouts
+	public static final Deadline NONE = new Deadline(0, false);
+
+	private final long expiresAt;
+	private final boolean bounded;
+
+	private Deadline(long expiresAt, boolean bounded)
+	{
+		this.expiresAt = expiresAt;
+		this.bounded = bounded;
+	}
+
+	public static Deadline after(long millis)
+	{
+		return new Deadline(System.nanoTime() + millis * 1000000L, true);
+	}
+
+	// the same deadline, brought forward; keeps time in reserve for work that follows, such as a rollback
+	public Deadline shortenedBy(long millis)
+	{
+		return bounded ? new Deadline(expiresAt - millis * 1000000L, true) : this;
+	}
+
+	public boolean isBounded()
+	{
+		return bounded;
+	}
+
+	// milliseconds left, 0 once expired, Long.MAX_VALUE if unbounded
+	public long remaining()
+	{
+		if (!bounded)
+		{
+			return Long.MAX_VALUE;
+		}
+
+		return Math.max(0, (expiresAt - System.nanoTime()) / 1000000L);
+	}
+
+	public boolean isExpired()
+	{
+		return bounded && expiresAt - System.nanoTime() <= 0;
+	}
+
+	void check(String command) throws DeadlineExceededException
+	{
+		if (isExpired())
+		{
+			throw new DeadlineExceededException("Deadline expired before " + command + " completed");
+		}
+	}
+}
@@ -0,0 +1,32 @@
+/**
+ * Copyright 2013 AppDynamics, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.appdynamics.cloudstack;
+
+// the time budget of a call ran out; the request may or may not have reached the management server
+public class DeadlineExceededException extends Exception
+{
+	private static final long serialVersionUID = 1L;
+
+	public DeadlineExceededException(String message)
+	{
+		super(message);
+	}
+
+	public DeadlineExceededException(String message, Throwable cause)
+	{
+		super(message, cause);
+	}
+}
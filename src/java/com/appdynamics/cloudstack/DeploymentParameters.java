@@ -0,0 +1,63 @@
+/**
+ * Copyright 2013 AppDynamics, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.appdynamics.cloudstack;
+
+import java.util.Map;
+
+// The deployVirtualMachine parameters that are the same for every machine of one descriptor, url-encoded and
+// sorted once. A deploy only merges its display name and user data into them before signing.
+public final class DeploymentParameters
+{
+	private final RequestParameters params = new RequestParameters(32);
+
+	// display name and user data of the options are left out, they are passed with each deploy
+	public DeploymentParameters(String serviceOfferingId, String templateId, String zoneId,
+			CreateServerOptions options)
+	{
+		params.put("serviceofferingid", serviceOfferingId);
+		params.put("templateid", templateId);
+		params.put("zoneid", zoneId);
+		params.put("account", options.getAccount());
+		params.put("diskofferingid", options.getDiskOfferingId());
+		params.put("domainid", options.getDomainId());
+		params.put("group", options.getGroup());
+		params.put("hostid", options.getHostId());
+		params.put("hypervisor", options.getHypervisor());
+		params.put("ipaddress", options.getIpAddress());
+		params.put("keyboard", options.getKeyboard());
+		params.put("keypair", options.getKeyPair());
+		params.put("name", options.getName());
+		params.put("networkids", options.getNetWorkIds());
+		params.put("projectid", options.getProjectId());
+		params.put("securitygroupids", options.getSecurityGroupIds());
+		params.put("securitygroupnames", options.getSecurityGroupNames());
+		params.put("size", options.getSize());
+
+		int i = 0;
+
+		for (Map.Entry<String, String> entry : options.getIpToNetworkList().entrySet())
+		{
+			params.put("iptonetworklist[" + i + "].ip", entry.getKey());
+			params.put("iptonetworklist[" + i + "].networkid", entry.getValue());
+			i++;
+		}
+	}
+
+	RequestParameters getParameters()
+	{
+		return params;
+	}
+}
@@ -0,0 +1,135 @@
+/**
+ * Copyright 2013 AppDynamics, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.appdynamics.cloudstack;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+// The management servers of one cloud together with what requests to any of them share. Each request goes to the
+// server with the best score whose circuit breaker lets it through; a server left idle for a while is probed now
+// and then, so a recovered one is noticed.
+class EndpointRouter
+{
+	private final List<ApiEndpoint> endpoints;
+	private final HttpTransport transport;
+	private final RetryPolicy retryPolicy;
+	private final ResponseFormat responseFormat;
+	private final RequestCoalescer coalescer;
+
+	// a null coalescer sends every read on its own
+	EndpointRouter(List<ApiEndpoint> endpoints, HttpTransport transport, RetryPolicy retryPolicy,
+			ResponseFormat responseFormat, RequestCoalescer coalescer)
+	{
+		this.endpoints = new ArrayList<ApiEndpoint>(endpoints);
+		this.transport = transport;
+		this.retryPolicy = retryPolicy;
+		this.responseFormat = responseFormat;
+		this.coalescer = coalescer;
+	}
+
+	List<ApiEndpoint> getEndpoints()
+	{
+		return endpoints;
+	}
+
+	HttpTransport getTransport()
+	{
+		return transport;
+	}
+
+	RetryPolicy getRetryPolicy()
+	{
+		return retryPolicy;
+	}
+
+	ResponseFormat getResponseFormat()
+	{
+		return responseFormat;
+	}
+
+	RequestCoalescer getCoalescer()
+	{
+		return coalescer;
+	}
+
+	// the server to send the next request to, leaving out the excluded ones; null when none will take it
+	ApiEndpoint select(Collection<ApiEndpoint> excluded)
+	{
+		if (endpoints.size() == 1)
+		{
+			ApiEndpoint only = endpoints.get(0);
+			return !excluded.contains(only) && only.getCircuitBreaker().allowRequest() ? only : null;
+		}
+
+		List<ApiEndpoint> candidates = new ArrayList<ApiEndpoint>(endpoints.size());
+		List<Double> scores = new ArrayList<Double>(endpoints.size());
+		long now = System.currentTimeMillis();
+
+		for (ApiEndpoint endpoint : endpoints)
+		{
+			if (excluded.contains(endpoint))
+			{
+				continue;
+			}
+
+			if (endpoint.getScore().claimProbe(now) && endpoint.getCircuitBreaker().allowRequest())
+			{
+				return endpoint;
+			}
+
+			// scores change while requests complete, sort on a snapshot; insertion sort, there are a handful
+			double score = endpoint.getScore().get();
+			int i = scores.size();
+
+			while (i > 0 && scores.get(i - 1) > score)
+			{
+				i--;
+			}
+
+			candidates.add(i, endpoint);
+			scores.add(i, score);
+		}
+
+		for (ApiEndpoint endpoint : candidates)
+		{
+			if (endpoint.getCircuitBreaker().allowRequest())
+			{
+				return endpoint;
+			}
+		}
+
+		return null;
+	}
+
+	@Override
+	public String toString()
+	{
+		StringBuilder urls = new StringBuilder();
+
+		for (ApiEndpoint endpoint : endpoints)
+		{
+			if (urls.length() > 0)
+			{
+				urls.append(',');
+			}
+
+			urls.append(endpoint.getAccessUrl());
+		}
+
+		return urls.toString();
+	}
+}
@@ -0,0 +1,87 @@
+/**
+ * Copyright 2013 AppDynamics, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.appdynamics.cloudstack;
+
+// How well one management server has been answering lately: exponentially weighted moving averages of the latency
+// and of the share of requests failing at the transport level. Lower is better.
+class EndpointScore
+{
+	// weight of the newest sample, about the last ten requests make up the averages
+	private static final double ALPHA = 0.2;
+
+	// a server failing every request scores like one eleven times slower than its latency
+	private static final double FAILURE_PENALTY = 10;
+
+	// a server that got no requests for this long gets one, so its score follows a recovery
+	static final long PROBE_INTERVAL = 10000;
+
+	private double latencyMillis;
+	private double failureRate;
+	private boolean sampled;
+	private long lastUsed;
+
+	synchronized void record(long nanos, boolean failed)
+	{
+		double millis = nanos / 1e6;
+
+		if (!sampled)
+		{
+			latencyMillis = millis;
+			failureRate = failed ? 1 : 0;
+			sampled = true;
+		}
+		else
+		{
+			latencyMillis += ALPHA * (millis - latencyMillis);
+			failureRate += ALPHA * ((failed ? 1 : 0) - failureRate);
+		}
+
+		lastUsed = System.currentTimeMillis();
+	}
+
+	// 0 until the first request completed, so every server is tried early on
+	synchronized double get()
+	{
+		if (!sampled)
+		{
+			return 0;
+		}
+
+		return (latencyMillis + 1) * (1 + FAILURE_PENALTY * failureRate);
+	}
+
+	// true for the one caller that should probe a server left idle for the probe interval
+	synchronized boolean claimProbe(long now)
+	{
+		if (!sampled || now - lastUsed < PROBE_INTERVAL)
+		{
+			return false;
+		}
+
+		lastUsed = now;
+		return true;
+	}
+
+	synchronized double getLatencyMillis()
+	{
+		return latencyMillis;
+	}
+
+	synchronized double getFailureRate()
+	{
+		return failureRate;
+	}
+}
@@ -0,0 +1,111 @@
+/**
+ * Copyright 2013 AppDynamics, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.appdynamics.cloudstack;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.httpclient.DefaultHttpMethodRetryHandler;
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.HttpMethod;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
+import org.apache.commons.httpclient.params.HttpMethodParams;
+
+// pooled, keep-alive http connections shared by every command a CloudStackClient sends
+class HttpTransport
+{
+	// one daemon thread closes idle connections and aborts overdue requests for all transports
+	private static final ScheduledExecutorService idleConnectionReaper = Executors
+			.newSingleThreadScheduledExecutor(new DaemonThreadFactory("cloudstack-idle-connection-reaper"));
+
+	private final MultiThreadedHttpConnectionManager connectionManager;
+	private final HttpClient httpClient;
+	private final ScheduledFuture<?> idleCheck;
+	private final long maxResponseSize;
+	private final boolean compressionEnabled;
+
+	HttpTransport(ClientOptions options)
+	{
+		connectionManager = new MultiThreadedHttpConnectionManager();
+
+		HttpConnectionManagerParams params = connectionManager.getParams();
+		params.setDefaultMaxConnectionsPerHost(options.getMaxConnectionsPerHost());
+		params.setMaxTotalConnections(Math.max(options.getMaxTotalConnections(), options.getMaxConnectionsPerHost()));
+		params.setStaleCheckingEnabled(true);
+		params.setConnectionTimeout(options.getConnectTimeout());
+		params.setSoTimeout(options.getSocketTimeout());
+
+		httpClient = new HttpClient(connectionManager);
+		httpClient.getParams().setConnectionManagerTimeout(options.getConnectionManagerTimeout());
+
+		// RetryPolicy is the only retry mechanism: httpclient's own handler would silently resend deploys and
+		// destroys, and hide the attempts from the breaker, governor and metrics
+		httpClient.getParams().setParameter(HttpMethodParams.RETRY_HANDLER, new DefaultHttpMethodRetryHandler(0, false));
+		maxResponseSize = options.getMaxResponseSize();
+		compressionEnabled = options.isCompressionEnabled();
+
+		final long idleTimeout = options.getIdleConnectionTimeout();
+		long checkInterval = Math.max(1000, idleTimeout / 2);
+
+		idleCheck = idleConnectionReaper.scheduleWithFixedDelay(new Runnable()
+		{
+			public void run()
+			{
+				connectionManager.closeIdleConnections(idleTimeout);
+				connectionManager.deleteClosedConnections();
+			}
+		}, checkInterval, checkInterval, TimeUnit.MILLISECONDS);
+	}
+
+	HttpClient getHttpClient()
+	{
+		return httpClient;
+	}
+
+	// bytes of a response body read before the request is failed
+	long getMaxResponseSize()
+	{
+		return maxResponseSize;
+	}
+
+	// whether gzip/deflate encoded responses are asked for
+	boolean isCompressionEnabled()
+	{
+		return compressionEnabled;
+	}
+
+	// aborts the request unless the returned future is cancelled first; the socket timeout only bounds the wait
+	// between two packets, not the whole response
+	ScheduledFuture<?> abortAfter(final HttpMethod method, long delay)
+	{
+		return idleConnectionReaper.schedule(new Runnable()
+		{
+			public void run()
+			{
+				method.abort();
+			}
+		}, delay, TimeUnit.MILLISECONDS);
+	}
+
+	void shutdown()
+	{
+		idleCheck.cancel(false);
+		connectionManager.shutdown();
+	}
+}
@@ -0,0 +1,341 @@
+/**
+ * Copyright 2013 AppDynamics, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.appdynamics.cloudstack;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+
+// Single pass, streaming parse of a response=json api response, driving the same ResponseBuilder as the xml
+// parser. The json maps onto the element events of the xml form: every object member is an element named after
+// the member, an object value is a container element and an array repeats the element once per item, so
+// {"listvirtualmachinesresponse":{"virtualmachine":[{"id":"1"}]}} produces the same events as
+// <listvirtualmachinesresponse><virtualmachine><id>1</id></virtualmachine></listvirtualmachinesresponse>.
+class JsonResponseParser
+{
+	private final Reader in;
+	private final char[] buffer = new char[8192];
+	private int position;
+	private int limit;
+
+	private final ResponseBuilder builder = new ResponseBuilder();
+	private final StringBuilder text = new StringBuilder();
+
+	private JsonResponseParser(Reader in)
+	{
+		this.in = in;
+	}
+
+	static CloudStackResponse parse(InputStream in) throws Exception
+	{
+		if (in == null)
+		{
+			return CloudStackResponse.nullResponse();
+		}
+
+		JsonResponseParser parser = new JsonResponseParser(new InputStreamReader(in, "UTF-8"));
+
+		try
+		{
+			if (parser.peek() == -1)
+			{
+				return CloudStackResponse.nullResponse();
+			}
+
+			parser.parseDocument();
+			return parser.builder.getResponse();
+		}
+		catch (IOException e)
+		{
+			// the connection failed or the body hit the size limit, not a malformed response
+			throw e;
+		}
+		catch (Exception e)
+		{
+			throw new Exception("Error reading json response. " + e, e);
+		}
+	}
+
+	// the outer object is anonymous, its members are the <...response> root elements
+	private void parseDocument() throws Exception
+	{
+		expect('{');
+
+		if (peek() == '}')
+		{
+			next();
+			return;
+		}
+
+		do
+		{
+			String name = parseString();
+			expect(':');
+			parseValue(name);
+		}
+		while (nextSeparator('}'));
+	}
+
+	private void parseValue(String name) throws Exception
+	{
+		int c = peek();
+
+		if (c == '{')
+		{
+			next();
+			builder.startElement(name);
+
+			if (peek() == '}')
+			{
+				next();
+			}
+			else
+			{
+				do
+				{
+					String member = parseString();
+					expect(':');
+					parseValue(member);
+				}
+				while (nextSeparator('}'));
+			}
+
+			builder.endElement(name, null);
+		}
+		else if (c == '[')
+		{
+			next();
+
+			if (peek() == ']')
+			{
+				next();
+				return;
+			}
+
+			do
+			{
+				parseValue(name);
+			}
+			while (nextSeparator(']'));
+		}
+		else if (c == '"')
+		{
+			leaf(name, parseString());
+		}
+		else if (c == 'n')
+		{
+			// a null member is the same as an absent element
+			parseLiteral();
+		}
+		else
+		{
+			leaf(name, parseLiteral());
+		}
+	}
+
+	private void leaf(String name, String value)
+	{
+		builder.startElement(name);
+		builder.endElement(name, value.trim());
+	}
+
+	// true after a ',', false after the closing character
+	private boolean nextSeparator(char close) throws Exception
+	{
+		int c = next();
+
+		if (c == ',')
+		{
+			return true;
+		}
+
+		if (c != close)
+		{
+			throw new Exception("Expected ',' or '" + close + "' but found " + describe(c));
+		}
+
+		return false;
+	}
+
+	private String parseString() throws Exception
+	{
+		expect('"');
+		text.setLength(0);
+
+		while (true)
+		{
+			int c = read();
+
+			if (c == '"')
+			{
+				return text.toString();
+			}
+
+			if (c == -1)
+			{
+				throw new Exception("Unterminated string");
+			}
+
+			if (c != '\\')
+			{
+				text.append((char) c);
+				continue;
+			}
+
+			c = read();
+
+			switch (c)
+			{
+			case 'b':
+				text.append('\b');
+				break;
+			case 'f':
+				text.append('\f');
+				break;
+			case 'n':
+				text.append('\n');
+				break;
+			case 'r':
+				text.append('\r');
+				break;
+			case 't':
+				text.append('\t');
+				break;
+			case 'u':
+				int code = 0;
+
+				for (int i = 0; i < 4; i++)
+				{
+					int digit = Character.digit(read(), 16);
+
+					if (digit < 0)
+					{
+						throw new Exception("Invalid unicode escape");
+					}
+
+					code = code * 16 + digit;
+				}
+
+				text.append((char) code);
+				break;
+			case '"':
+			case '\\':
+			case '/':
+				text.append((char) c);
+				break;
+			default:
+				throw new Exception("Invalid escape " + describe(c));
+			}
+		}
+	}
+
+	// numbers, true, false and null, returned as written
+	private String parseLiteral() throws Exception
+	{
+		text.setLength(0);
+
+		while (true)
+		{
+			int c = peekRaw();
+
+			if (c == -1 || c == ',' || c == '}' || c == ']' || Character.isWhitespace((char) c))
+			{
+				break;
+			}
+
+			text.append((char) read());
+		}
+
+		if (text.length() == 0)
+		{
+			throw new Exception("Expected a value but found " + describe(peekRaw()));
+		}
+
+		return text.toString();
+	}
+
+	private void expect(char expected) throws Exception
+	{
+		int c = next();
+
+		if (c != expected)
+		{
+			throw new Exception("Expected '" + expected + "' but found " + describe(c));
+		}
+	}
+
+	// next character that is not whitespace, without consuming it
+	private int peek() throws IOException
+	{
+		int c = peekRaw();
+
+		while (c != -1 && Character.isWhitespace((char) c))
+		{
+			position++;
+			c = peekRaw();
+		}
+
+		return c;
+	}
+
+	// consumes and returns the next character that is not whitespace
+	private int next() throws IOException
+	{
+		int c = peek();
+
+		if (c != -1)
+		{
+			position++;
+		}
+
+		return c;
+	}
+
+	private int peekRaw() throws IOException
+	{
+		if (position == limit)
+		{
+			limit = in.read(buffer);
+			position = 0;
+
+			if (limit <= 0)
+			{
+				limit = 0;
+				return -1;
+			}
+		}
+
+		return buffer[position];
+	}
+
+	private int read() throws IOException
+	{
+		int c = peekRaw();
+
+		if (c != -1)
+		{
+			position++;
+		}
+
+		return c;
+	}
+
+	private static String describe(int c)
+	{
+		return c == -1 ? "end of input" : "'" + (char) c + "'";
+	}
+}
@@ -0,0 +1,127 @@
+/**
+ * Copyright 2013 AppDynamics, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.appdynamics.cloudstack;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// lock-free latency histogram with log-linear buckets: four buckets per power of two of microseconds, so a
+// recorded value costs two atomic increments and quantiles are accurate to within 25%
+class LatencyHistogram
+{
+	private static final int SUB_BUCKET_BITS = 2;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	// up to 2^36 microseconds, about 19 hours
+	private static final int MAX_BIT = 36;
+	private static final int BUCKETS = SUB_BUCKETS + (MAX_BIT - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong sumMicros = new AtomicLong();
+
+	void record(long nanos)
+	{
+		long micros = Math.max(0, nanos / 1000);
+
+		counts.incrementAndGet(indexOf(micros));
+		count.incrementAndGet();
+		sumMicros.addAndGet(micros);
+	}
+
+	long getCount()
+	{
+		return count.get();
+	}
+
+	long getSumMicros()
+	{
+		return sumMicros.get();
+	}
+
+	double getMeanMillis()
+	{
+		long n = count.get();
+		return n == 0 ? 0 : sumMicros.get() / 1000.0 / n;
+	}
+
+	double getQuantileMillis(double q)
+	{
+		return getQuantileMicros(q) / 1000.0;
+	}
+
+	// upper bound of the bucket holding the q-th quantile, 0 when nothing was recorded
+	long getQuantileMicros(double q)
+	{
+		long[] snapshot = new long[BUCKETS];
+		long total = 0;
+
+		for (int i = 0; i < BUCKETS; i++)
+		{
+			snapshot[i] = counts.get(i);
+			total += snapshot[i];
+		}
+
+		if (total == 0)
+		{
+			return 0;
+		}
+
+		long rank = Math.max(1, (long) Math.ceil(q * total));
+		long seen = 0;
+
+		for (int i = 0; i < BUCKETS; i++)
+		{
+			seen += snapshot[i];
+
+			if (seen >= rank)
+			{
+				return upperBoundOf(i);
+			}
+		}
+
+		return upperBoundOf(BUCKETS - 1);
+	}
+
+	static int indexOf(long micros)
+	{
+		if (micros < SUB_BUCKETS)
+		{
+			return (int) micros;
+		}
+
+		int bit = 63 - Long.numberOfLeadingZeros(micros);
+
+		if (bit > MAX_BIT)
+		{
+			return BUCKETS - 1;
+		}
+
+		int shift = bit - SUB_BUCKET_BITS;
+		return SUB_BUCKETS + shift * SUB_BUCKETS + (int) ((micros >>> shift) & (SUB_BUCKETS - 1));
+	}
+
+	static long upperBoundOf(int index)
+	{
+		if (index < SUB_BUCKETS)
+		{
+			return index;
+		}
+
+		int shift = (index - SUB_BUCKETS) / SUB_BUCKETS;
+		long subBucket = (index - SUB_BUCKETS) % SUB_BUCKETS;
+		return ((SUB_BUCKETS + subBucket + 1) << shift) - 1;
+	}
+}
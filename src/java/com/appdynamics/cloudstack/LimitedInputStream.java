@@ -0,0 +1,94 @@
+/**
+ * Copyright 2013 AppDynamics, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.appdynamics.cloudstack;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+// fails the read once more than limit bytes have come through, so a runaway response can't exhaust the heap
+class LimitedInputStream extends FilterInputStream
+{
+	private final long limit;
+	private long count;
+
+	LimitedInputStream(InputStream in, long limit)
+	{
+		super(in);
+		this.limit = limit;
+	}
+
+	@Override
+	public int read() throws IOException
+	{
+		int b = super.read();
+
+		if (b != -1)
+		{
+			count(1);
+		}
+
+		return b;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException
+	{
+		int n = super.read(b, off, len);
+
+		if (n > 0)
+		{
+			count(n);
+		}
+
+		return n;
+	}
+
+	@Override
+	public long skip(long n) throws IOException
+	{
+		long skipped = super.skip(n);
+		count(skipped);
+		return skipped;
+	}
+
+	@Override
+	public boolean markSupported()
+	{
+		return false;
+	}
+
+	private void count(long n) throws ResponseTooLargeException
+	{
+		count += n;
+
+		if (count > limit)
+		{
+			throw new ResponseTooLargeException("Response body exceeds the limit of " + limit + " bytes");
+		}
+	}
+
+	// not transient: the same request would get the same oversized answer again
+	static class ResponseTooLargeException extends IOException
+	{
+		private static final long serialVersionUID = 1L;
+
+		ResponseTooLargeException(String message)
+		{
+			super(message);
+		}
+	}
+}
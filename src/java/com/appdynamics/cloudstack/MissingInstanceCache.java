@@ -0,0 +1,73 @@
+/**
+ * Copyright 2013 AppDynamics, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.appdynamics.cloudstack;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Ids of instances the management server no longer knows. Lookups of an instance found here are answered without
+// a request; entries expire after the ttl and the least recently marked ones are dropped above maxSize.
+class MissingInstanceCache
+{
+	private final int maxSize;
+	private final long ttl;
+
+	private final LinkedHashMap<String, Long> missingSince;
+
+	MissingInstanceCache(final int maxSize, long ttl)
+	{
+		this.maxSize = maxSize;
+		this.ttl = ttl;
+		this.missingSince = new LinkedHashMap<String, Long>(16, 0.75f, false)
+		{
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Long> eldest)
+			{
+				return size() > maxSize;
+			}
+		};
+	}
+
+	synchronized boolean isMissing(String id)
+	{
+		Long since = missingSince.get(id);
+
+		if (since == null)
+		{
+			return false;
+		}
+
+		if (System.currentTimeMillis() - since >= ttl)
+		{
+			missingSince.remove(id);
+			return false;
+		}
+
+		return true;
+	}
+
+	synchronized void markMissing(String id)
+	{
+		if (maxSize > 0 && ttl > 0)
+		{
+			// re-inserted so a refreshed entry moves to the young end
+			missingSince.remove(id);
+			missingSince.put(id, System.currentTimeMillis());
+		}
+	}
+}
@@ -0,0 +1,109 @@
+/**
+ * Copyright 2013 AppDynamics, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.appdynamics.cloudstack;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+// Lets concurrent identical reads share one request. The first caller of a key sends it; callers arriving while it
+// is in flight wait for its parsed response, or its failure, instead of sending their own. Nothing is cached: a
+// caller arriving after the request completed sends a new one.
+class RequestCoalescer
+{
+	private final ConcurrentMap<String, Flight> inFlight = new ConcurrentHashMap<String, Flight>();
+
+	// the returned response may be shared between callers and must not be modified
+	CloudStackResponse execute(String key, Callable<CloudStackResponse> request, Deadline deadline) throws Exception
+	{
+		Flight flight = new Flight();
+		Flight leader = inFlight.putIfAbsent(key, flight);
+
+		if (leader == null)
+		{
+			return lead(key, flight, request);
+		}
+
+		if (!leader.await(deadline))
+		{
+			throw new DeadlineExceededException("Deadline expired waiting for a shared " + commandOf(key));
+		}
+
+		if (leader.response != null)
+		{
+			return leader.response;
+		}
+
+		if (leader.failure != null && !leader.abandoned)
+		{
+			throw leader.failure;
+		}
+
+		// the leader gave up for reasons of its own, i.e. its deadline or a cancel; don't inherit them
+		return request.call();
+	}
+
+	private CloudStackResponse lead(String key, Flight flight, Callable<CloudStackResponse> request) throws Exception
+	{
+		try
+		{
+			flight.response = request.call();
+			return flight.response;
+		}
+		catch (Exception e)
+		{
+			flight.failure = e;
+			flight.abandoned = e instanceof DeadlineExceededException || e instanceof InterruptedException
+					|| Thread.currentThread().isInterrupted();
+			throw e;
+		}
+		finally
+		{
+			// removed before waking the followers, a later caller must not pick up a completed flight
+			inFlight.remove(key, flight);
+			flight.done.countDown();
+		}
+	}
+
+	private static String commandOf(String key)
+	{
+		int end = key.indexOf('&');
+		return end < 0 ? key : key.substring(0, end);
+	}
+
+	private static class Flight
+	{
+		private final CountDownLatch done = new CountDownLatch(1);
+
+		private volatile CloudStackResponse response;
+		private volatile Exception failure;
+		private volatile boolean abandoned;
+
+		// false when the deadline passed first
+		boolean await(Deadline deadline) throws InterruptedException
+		{
+			if (!deadline.isBounded())
+			{
+				done.await();
+				return true;
+			}
+
+			return done.await(deadline.remaining(), TimeUnit.MILLISECONDS);
+		}
+	}
+}
@@ -0,0 +1,152 @@
+/**
+ * Copyright 2013 AppDynamics, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.appdynamics.cloudstack;
+
+// Paces the requests sent to one end point with one api key. A token bucket caps the request rate and an adaptive
+// concurrency limit caps requests in flight: the limit grows slowly while calls succeed and is halved when the
+// server throttles or times out, so bursts settle at the highest load the management server sustains instead of
+// tripping api.throttling over and over.
+class RequestGovernor
+{
+	enum Outcome
+	{
+		SUCCEEDED, THROTTLED, TIMED_OUT, FAILED
+	}
+
+	// a burst of throttled responses to requests sent together counts as one signal
+	private static final long DECREASE_INTERVAL = 1000;
+
+	private final double tokensPerMilli;
+	private final double burst;
+	private final int maxConcurrency;
+
+	private double tokens;
+	private long lastRefill = System.currentTimeMillis();
+
+	private double limit;
+	private int inFlight;
+	private long lastDecrease;
+
+	// a rate of 0 or less leaves the request rate unlimited
+	RequestGovernor(double requestsPerSecond, int maxConcurrency)
+	{
+		this.tokensPerMilli = requestsPerSecond / 1000;
+		this.burst = Math.max(1, requestsPerSecond);
+		this.maxConcurrency = Math.max(1, maxConcurrency);
+		this.tokens = burst;
+		this.limit = this.maxConcurrency;
+	}
+
+	// false when no slot became free within maxWait milliseconds
+	synchronized boolean acquire(long maxWait) throws InterruptedException
+	{
+		long giveUpAt = maxWait == Long.MAX_VALUE ? Long.MAX_VALUE : System.currentTimeMillis() + maxWait;
+
+		while (true)
+		{
+			long waitFor = 0;
+
+			if (inFlight >= (int) limit)
+			{
+				waitFor = Long.MAX_VALUE;
+			}
+			else if (tokensPerMilli > 0)
+			{
+				refill();
+
+				if (tokens < 1)
+				{
+					waitFor = Math.max(1, (long) Math.ceil((1 - tokens) / tokensPerMilli));
+				}
+			}
+
+			if (waitFor == 0)
+			{
+				break;
+			}
+
+			if (giveUpAt != Long.MAX_VALUE)
+			{
+				long left = giveUpAt - System.currentTimeMillis();
+
+				if (left <= 0)
+				{
+					return false;
+				}
+
+				waitFor = Math.min(waitFor, left);
+			}
+
+			if (waitFor == Long.MAX_VALUE)
+			{
+				wait();
+			}
+			else
+			{
+				wait(waitFor);
+			}
+		}
+
+		if (tokensPerMilli > 0)
+		{
+			tokens -= 1;
+		}
+
+		inFlight++;
+		return true;
+	}
+
+	synchronized void release(Outcome outcome)
+	{
+		inFlight--;
+
+		if (outcome == Outcome.SUCCEEDED)
+		{
+			// roughly +1 per round of limit requests
+			limit = Math.min(maxConcurrency, limit + 1 / limit);
+		}
+		else if (outcome == Outcome.THROTTLED || outcome == Outcome.TIMED_OUT)
+		{
+			long now = System.currentTimeMillis();
+
+			if (now - lastDecrease >= DECREASE_INTERVAL)
+			{
+				limit = Math.max(1, limit / 2);
+				lastDecrease = now;
+			}
+
+			if (outcome == Outcome.THROTTLED)
+			{
+				// stop sending until the bucket refills
+				tokens = Math.min(tokens, 0);
+			}
+		}
+
+		notifyAll();
+	}
+
+	synchronized int getConcurrencyLimit()
+	{
+		return (int) limit;
+	}
+
+	private void refill()
+	{
+		long now = System.currentTimeMillis();
+		tokens = Math.min(burst, tokens + (now - lastRefill) * tokensPerMilli);
+		lastRefill = now;
+	}
+}
@@ -0,0 +1,134 @@
+/**
+ * Copyright 2013 AppDynamics, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.appdynamics.cloudstack;
+
+// request parameters, url-encoded once when added and kept sorted by lower-case field name, which is the order
+// the request signature is computed in
+class RequestParameters
+{
+	private String[] lowerFields;
+	private String[] encodedFields;
+	private String[] encodedValues;
+	private int size;
+
+	RequestParameters()
+	{
+		this(16);
+	}
+
+	RequestParameters(int capacity)
+	{
+		lowerFields = new String[capacity];
+		encodedFields = new String[capacity];
+		encodedValues = new String[capacity];
+	}
+
+	// blank values are left out of the request; a field added twice keeps the last value
+	void put(String field, String value)
+	{
+		if (value == null || value.trim().length() == 0)
+		{
+			return;
+		}
+
+		putEncoded(field.toLowerCase(), UrlEncoder.encode(field), UrlEncoder.encode(value.trim()));
+	}
+
+	// adds every parameter of the other set, replacing fields present in both
+	void putAll(RequestParameters other)
+	{
+		for (int i = 0; i < other.size; i++)
+		{
+			putEncoded(other.lowerFields[i], other.encodedFields[i], other.encodedValues[i]);
+		}
+	}
+
+	int size()
+	{
+		return size;
+	}
+
+	String getLowerField(int i)
+	{
+		return lowerFields[i];
+	}
+
+	String getEncodedField(int i)
+	{
+		return encodedFields[i];
+	}
+
+	String getEncodedValue(int i)
+	{
+		return encodedValues[i];
+	}
+
+	private void putEncoded(String lowerField, String encodedField, String encodedValue)
+	{
+		// insertion sort, requests carry a few dozen parameters at most
+		int i = size;
+
+		while (i > 0)
+		{
+			int compare = lowerFields[i - 1].compareTo(lowerField);
+
+			if (compare == 0)
+			{
+				encodedFields[i - 1] = encodedField;
+				encodedValues[i - 1] = encodedValue;
+				return;
+			}
+
+			if (compare < 0)
+			{
+				break;
+			}
+
+			i--;
+		}
+
+		if (size == lowerFields.length)
+		{
+			grow();
+		}
+
+		System.arraycopy(lowerFields, i, lowerFields, i + 1, size - i);
+		System.arraycopy(encodedFields, i, encodedFields, i + 1, size - i);
+		System.arraycopy(encodedValues, i, encodedValues, i + 1, size - i);
+
+		lowerFields[i] = lowerField;
+		encodedFields[i] = encodedField;
+		encodedValues[i] = encodedValue;
+		size++;
+	}
+
+	private void grow()
+	{
+		int capacity = Math.max(4, lowerFields.length * 2);
+
+		String[] grown = new String[capacity];
+		System.arraycopy(lowerFields, 0, grown, 0, size);
+		lowerFields = grown;
+
+		grown = new String[capacity];
+		System.arraycopy(encodedFields, 0, grown, 0, size);
+		encodedFields = grown;
+
+		grown = new String[capacity];
+		System.arraycopy(encodedValues, 0, grown, 0, size);
+		encodedValues = grown;
+	}
+}
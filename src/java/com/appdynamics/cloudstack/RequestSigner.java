@@ -0,0 +1,160 @@
+/**
+ * Copyright 2013 AppDynamics, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.appdynamics.cloudstack;
+
+import java.security.SignatureException;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.commons.codec.binary.Base64;
+
+// builds signed query strings for one api key. The HMAC-SHA1 key is initialized once and each thread reuses its own
+// Mac, so signing a request costs little more than the hmac itself.
+class RequestSigner
+{
+	private final String apiKey;
+	private final String lowerApiKey;
+	private final ThreadLocal<Mac> macs;
+
+	RequestSigner(String apiKey, String secretKey)
+	{
+		this.apiKey = apiKey;
+		this.lowerApiKey = apiKey.toLowerCase();
+
+		SecretKeySpec key = null;
+
+		try
+		{
+			key = new SecretKeySpec(secretKey.getBytes(), "HmacSHA1");
+		}
+		catch (RuntimeException e)
+		{
+			// missing or empty secret, reported when the first request is signed
+		}
+
+		final SecretKeySpec signingKey = key;
+
+		this.macs = new ThreadLocal<Mac>()
+		{
+			@Override
+			protected Mac initialValue()
+			{
+				try
+				{
+					Mac mac = Mac.getInstance("HmacSHA1");
+					mac.init(signingKey);
+					return mac;
+				}
+				catch (Exception e)
+				{
+					// leaves the slot empty so the next request tries again
+					return null;
+				}
+			}
+		};
+	}
+
+	// query string carrying the api key, command, parameters and signature; parameters appear in signature order
+	String sign(String command, RequestParameters params) throws SignatureException
+	{
+		StringBuilder query = new StringBuilder(128 + params.size() * 32);
+		StringBuilder signatureData = new StringBuilder(query.capacity());
+
+		query.append("apiKey=").append(apiKey).append("&command=").append(command);
+
+		String lowerCommand = command.toLowerCase();
+		boolean apiKeyAdded = false;
+		boolean commandAdded = false;
+
+		// merge apikey and command into the already sorted parameters
+		for (int i = 0; i < params.size(); i++)
+		{
+			String field = params.getLowerField(i);
+
+			if (!apiKeyAdded && "apikey".compareTo(field) < 0)
+			{
+				appendPair(signatureData, "apikey", lowerApiKey);
+				apiKeyAdded = true;
+			}
+
+			if (!commandAdded && "command".compareTo(field) < 0)
+			{
+				appendPair(signatureData, "command", lowerCommand);
+				commandAdded = true;
+			}
+
+			appendPair(signatureData, field, params.getEncodedValue(i));
+			query.append('&').append(params.getEncodedField(i)).append('=').append(params.getEncodedValue(i));
+		}
+
+		if (!apiKeyAdded)
+		{
+			appendPair(signatureData, "apikey", lowerApiKey);
+		}
+
+		if (!commandAdded)
+		{
+			appendPair(signatureData, "command", lowerCommand);
+		}
+
+		return query.append("&signature=").append(UrlEncoder.encode(hmac(signatureData))).toString();
+	}
+
+	private String hmac(CharSequence data) throws SignatureException
+	{
+		try
+		{
+			// encoded parameters are plain ascii
+			byte[] bytes = new byte[data.length()];
+
+			for (int i = 0; i < bytes.length; i++)
+			{
+				bytes[i] = (byte) data.charAt(i);
+			}
+
+			Mac mac = macs.get();
+
+			if (mac == null)
+			{
+				macs.remove();
+				throw new IllegalStateException("invalid secret key");
+			}
+
+			return new String(Base64.encodeBase64(mac.doFinal(bytes)), "US-ASCII");
+		}
+		catch (Exception e)
+		{
+			throw new SignatureException("Failed to generate HMAC : " + e.getMessage());
+		}
+	}
+
+	// the signature is computed over the lower-cased request
+	private static void appendPair(StringBuilder signatureData, String lowerField, String value)
+	{
+		if (signatureData.length() != 0)
+		{
+			signatureData.append('&');
+		}
+
+		signatureData.append(lowerField).append('=');
+
+		for (int i = 0; i < value.length(); i++)
+		{
+			signatureData.append(Character.toLowerCase(value.charAt(i)));
+		}
+	}
+}
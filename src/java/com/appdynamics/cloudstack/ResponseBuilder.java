@@ -0,0 +1,255 @@
+/**
+ * Copyright 2013 AppDynamics, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.appdynamics.cloudstack;
+
+// fills a CloudStackResponse from a stream of element events; depth 1 is the <...response> root element
+class ResponseBuilder
+{
+	private final CloudStackResponse response = new CloudStackResponse();
+
+	private int depth;
+
+	private VirtualMachine virtualMachine;
+	private int virtualMachineDepth;
+	private VirtualMachine.Nic nic;
+
+	private AsyncJob asyncJob;
+	private int asyncJobDepth;
+
+	void startElement(String name)
+	{
+		depth++;
+
+		if (virtualMachine == null && "virtualmachine".equals(name))
+		{
+			virtualMachine = new VirtualMachine();
+			virtualMachineDepth = depth;
+		}
+		else if (virtualMachine != null && depth == virtualMachineDepth + 1 && "nic".equals(name))
+		{
+			nic = new VirtualMachine.Nic();
+		}
+		else if (asyncJob == null && virtualMachine == null
+				&& ("asyncjobs".equals(name) || (depth == 1 && "queryasyncjobresultresponse".equals(name))))
+		{
+			// listAsyncJobs nests one <asyncjobs> per job, queryAsyncJobResult describes the job at the root
+			asyncJob = new AsyncJob();
+			asyncJobDepth = depth;
+		}
+	}
+
+	// text is the trimmed content of a leaf element, null for container elements
+	void endElement(String name, String text)
+	{
+		if (virtualMachine != null)
+		{
+			endVirtualMachineElement(name, text);
+		}
+		else if (asyncJob != null && depth == asyncJobDepth)
+		{
+			if (asyncJob.getJobId() != null)
+			{
+				response.addAsyncJob(asyncJob);
+			}
+
+			asyncJob = null;
+		}
+		else if (text != null && depth == 2 && "errortext".equals(name))
+		{
+			response.setErrorText(text);
+		}
+		else if (text != null && depth == 2 && "errorcode".equals(name))
+		{
+			response.setErrorCode(parseInt(text));
+		}
+		else if (asyncJob != null)
+		{
+			endAsyncJobElement(name, text);
+		}
+		else if (text != null && depth == 2)
+		{
+			if ("id".equals(name))
+			{
+				response.setId(text);
+			}
+			else if ("jobid".equals(name))
+			{
+				response.setJobId(text);
+			}
+			else if ("count".equals(name))
+			{
+				response.setCount(parseInt(text));
+			}
+		}
+
+		depth--;
+	}
+
+	private void endVirtualMachineElement(String name, String text)
+	{
+		if (depth == virtualMachineDepth)
+		{
+			response.addVirtualMachine(virtualMachine);
+			virtualMachine = null;
+		}
+		else if (nic != null && depth == virtualMachineDepth + 1)
+		{
+			virtualMachine.addNic(nic);
+			nic = null;
+		}
+		else if (text != null && nic != null && depth == virtualMachineDepth + 2)
+		{
+			endNicElement(name, text);
+		}
+		else if (text != null && depth == virtualMachineDepth + 1)
+		{
+			if ("id".equals(name))
+			{
+				virtualMachine.setId(text);
+			}
+			else if ("name".equals(name))
+			{
+				virtualMachine.setName(text);
+			}
+			else if ("displayname".equals(name))
+			{
+				virtualMachine.setDisplayName(text);
+			}
+			else if ("state".equals(name))
+			{
+				virtualMachine.setState(text);
+			}
+			else if ("zoneid".equals(name))
+			{
+				virtualMachine.setZoneId(text);
+			}
+			else if ("zonename".equals(name))
+			{
+				virtualMachine.setZoneName(text);
+			}
+			else if ("templateid".equals(name))
+			{
+				virtualMachine.setTemplateId(text);
+			}
+			else if ("templatename".equals(name))
+			{
+				virtualMachine.setTemplateName(text);
+			}
+			else if ("serviceofferingid".equals(name))
+			{
+				virtualMachine.setServiceOfferingId(text);
+			}
+			else if ("serviceofferingname".equals(name))
+			{
+				virtualMachine.setServiceOfferingName(text);
+			}
+			else if ("created".equals(name))
+			{
+				virtualMachine.setCreated(text);
+			}
+		}
+	}
+
+	private void endNicElement(String name, String text)
+	{
+		if ("id".equals(name))
+		{
+			nic.setId(text);
+		}
+		else if ("networkid".equals(name))
+		{
+			nic.setNetworkId(text);
+		}
+		else if ("networkname".equals(name))
+		{
+			nic.setNetworkName(text);
+		}
+		else if ("ipaddress".equals(name))
+		{
+			nic.setIpAddress(text);
+		}
+		else if ("macaddress".equals(name))
+		{
+			nic.setMacAddress(text);
+		}
+		else if ("isdefault".equals(name))
+		{
+			nic.setDefault(Boolean.valueOf(text).booleanValue());
+		}
+	}
+
+	private void endAsyncJobElement(String name, String text)
+	{
+		if (text == null)
+		{
+			return;
+		}
+
+		if (depth == asyncJobDepth + 1)
+		{
+			if ("jobid".equals(name))
+			{
+				asyncJob.setJobId(text);
+			}
+			else if ("jobstatus".equals(name))
+			{
+				asyncJob.setStatus(parseInt(text));
+			}
+			else if ("jobresultcode".equals(name))
+			{
+				asyncJob.setResultCode(parseInt(text));
+			}
+			else if ("cmd".equals(name))
+			{
+				asyncJob.setCommand(text);
+			}
+			else if ("jobinstancetype".equals(name))
+			{
+				asyncJob.setInstanceType(text);
+			}
+			else if ("jobinstanceid".equals(name))
+			{
+				asyncJob.setInstanceId(text);
+			}
+			else if ("created".equals(name))
+			{
+				asyncJob.setCreated(text);
+			}
+		}
+		else if ("errortext".equals(name))
+		{
+			// failure reason nested in <jobresult>
+			asyncJob.setErrorText(text);
+		}
+	}
+
+	CloudStackResponse getResponse()
+	{
+		return response;
+	}
+
+	private static int parseInt(String text)
+	{
+		try
+		{
+			return Integer.parseInt(text);
+		}
+		catch (NumberFormatException e)
+		{
+			return -1;
+		}
+	}
+}
@@ -0,0 +1,25 @@
+/**
+ * Copyright 2013 AppDynamics, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.appdynamics.cloudstack;
+
+import java.io.InputStream;
+
+// consumes an api response body as it streams off the connection, keeping only what it extracts
+interface ResponseHandler<T>
+{
+	// body is null when the response has none; it is closed by the caller
+	T handle(InputStream body, int statusCode, String charset) throws Exception;
+}
@@ -0,0 +1,54 @@
+/**
+ * Copyright 2013 AppDynamics, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.appdynamics.cloudstack;
+
+import java.util.Random;
+
+// how often and how long to wait before repeating a request that failed transiently. Only reads are
+// retried: repeating a deploy or destroy whose response got lost could act on the cloud twice.
+class RetryPolicy
+{
+	private static final Random random = new Random();
+
+	private final int maxRetries;
+	private final long baseDelay;
+	private final long maxDelay;
+
+	RetryPolicy(int maxRetries, long baseDelay, long maxDelay)
+	{
+		this.maxRetries = Math.max(0, maxRetries);
+		this.baseDelay = Math.max(1, baseDelay);
+		this.maxDelay = Math.max(this.baseDelay, maxDelay);
+	}
+
+	boolean isRetryable(String command, int attempt)
+	{
+		return attempt < maxRetries && isReadOnly(command);
+	}
+
+	// list* and query* commands don't change anything on the server
+	static boolean isReadOnly(String command)
+	{
+		return command.startsWith("list") || command.startsWith("query");
+	}
+
+	// exponential backoff with full jitter so clients failing together don't retry together
+	long getDelay(int attempt)
+	{
+		long ceiling = attempt >= 30 ? maxDelay : Math.min(maxDelay, baseDelay << attempt);
+		return 1 + (long) (random.nextDouble() * ceiling);
+	}
+}
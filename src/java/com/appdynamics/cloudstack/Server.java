@@ -20,6 +20,7 @@ public class Server
 {
 	private String name;
 	private String id;	
+	private String jobId;
 
 	public void setName(String name)
 	{
@@ -41,4 +42,15 @@ public class Server
 		return name;
 	}
 
+	public void setJobId(String jobId)
+	{
+		this.jobId = jobId;
+	}
+
+	// async job deploying the server, null if the server did not report one
+	public String getJobId()
+	{
+		return jobId;
+	}
+
 }
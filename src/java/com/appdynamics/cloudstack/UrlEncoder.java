@@ -0,0 +1,106 @@
+/**
+ * Copyright 2013 AppDynamics, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.appdynamics.cloudstack;
+
+import java.io.UnsupportedEncodingException;
+
+// same output as URLEncoder.encode(value, "UTF-8") with '+' replaced by "%20", without the regex and without
+// copying values that need no encoding
+final class UrlEncoder
+{
+	private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+	private UrlEncoder()
+	{
+	}
+
+	static String encode(String value)
+	{
+		int length = value.length();
+		int i = 0;
+
+		while (i < length && isUnreserved(value.charAt(i)))
+		{
+			i++;
+		}
+
+		if (i == length)
+		{
+			return value;
+		}
+
+		StringBuilder encoded = new StringBuilder(length + 16);
+		encoded.append(value, 0, i);
+
+		while (i < length)
+		{
+			char c = value.charAt(i);
+
+			if (isUnreserved(c))
+			{
+				encoded.append(c);
+				i++;
+			}
+			else if (c < 0x80)
+			{
+				appendEscaped(encoded, c);
+				i++;
+			}
+			else
+			{
+				// encode a whole run of non-ascii characters at once so surrogate pairs stay together
+				int end = i + 1;
+
+				while (end < length && value.charAt(end) >= 0x80)
+				{
+					end++;
+				}
+
+				for (byte b : utf8(value.substring(i, end)))
+				{
+					appendEscaped(encoded, b & 0xff);
+				}
+
+				i = end;
+			}
+		}
+
+		return encoded.toString();
+	}
+
+	private static boolean isUnreserved(char c)
+	{
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '.' || c == '-'
+				|| c == '*' || c == '_';
+	}
+
+	private static void appendEscaped(StringBuilder encoded, int b)
+	{
+		encoded.append('%').append(HEX[b >> 4]).append(HEX[b & 0x0f]);
+	}
+
+	private static byte[] utf8(String value)
+	{
+		try
+		{
+			return value.getBytes("UTF-8");
+		}
+		catch (UnsupportedEncodingException e)
+		{
+			throw new IllegalStateException(e);
+		}
+	}
+}
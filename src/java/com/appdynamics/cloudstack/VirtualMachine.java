@@ -0,0 +1,266 @@
+/**
+ * Copyright 2013 AppDynamics, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.appdynamics.cloudstack;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// a <virtualmachine> entry of a listVirtualMachines response, everything the connector needs from one lookup
+public class VirtualMachine
+{
+	private String id;
+	private String name;
+	private String displayName;
+	private String state;
+	private String zoneId;
+	private String zoneName;
+	private String templateId;
+	private String templateName;
+	private String serviceOfferingId;
+	private String serviceOfferingName;
+	private String created;
+	private final List<Nic> nics = new ArrayList<Nic>();
+	private final List<String> ipAddresses = new ArrayList<String>();
+
+	public String getId()
+	{
+		return id;
+	}
+
+	public String getName()
+	{
+		return name;
+	}
+
+	public String getDisplayName()
+	{
+		return displayName;
+	}
+
+	// as reported, i.e. Running, Stopped, Destroyed
+	public String getState()
+	{
+		return state;
+	}
+
+	public ServerStatus getStatus()
+	{
+		if (state == null)
+		{
+			return ServerStatus.UNKOWN;
+		}
+
+		try
+		{
+			return ServerStatus.valueOf(state.toUpperCase());
+		}
+		catch (Exception e)
+		{
+			return ServerStatus.UNKOWN;
+		}
+	}
+
+	public String getZoneId()
+	{
+		return zoneId;
+	}
+
+	public String getZoneName()
+	{
+		return zoneName;
+	}
+
+	public String getTemplateId()
+	{
+		return templateId;
+	}
+
+	public String getTemplateName()
+	{
+		return templateName;
+	}
+
+	public String getServiceOfferingId()
+	{
+		return serviceOfferingId;
+	}
+
+	public String getServiceOfferingName()
+	{
+		return serviceOfferingName;
+	}
+
+	// as reported, i.e. 2013-05-02T10:15:00+0000
+	public String getCreated()
+	{
+		return created;
+	}
+
+	public List<Nic> getNics()
+	{
+		return Collections.unmodifiableList(nics);
+	}
+
+	// addresses of all nics, the default nic's first
+	public List<String> getIpAddresses()
+	{
+		return Collections.unmodifiableList(ipAddresses);
+	}
+
+	void setId(String id)
+	{
+		this.id = id;
+	}
+
+	void setName(String name)
+	{
+		this.name = name;
+	}
+
+	void setDisplayName(String displayName)
+	{
+		this.displayName = displayName;
+	}
+
+	void setState(String state)
+	{
+		this.state = state;
+	}
+
+	void setZoneId(String zoneId)
+	{
+		this.zoneId = zoneId;
+	}
+
+	void setZoneName(String zoneName)
+	{
+		this.zoneName = zoneName;
+	}
+
+	void setTemplateId(String templateId)
+	{
+		this.templateId = templateId;
+	}
+
+	void setTemplateName(String templateName)
+	{
+		this.templateName = templateName;
+	}
+
+	void setServiceOfferingId(String serviceOfferingId)
+	{
+		this.serviceOfferingId = serviceOfferingId;
+	}
+
+	void setServiceOfferingName(String serviceOfferingName)
+	{
+		this.serviceOfferingName = serviceOfferingName;
+	}
+
+	void setCreated(String created)
+	{
+		this.created = created;
+	}
+
+	void addNic(Nic nic)
+	{
+		nics.add(nic);
+
+		if (nic.getIpAddress() != null)
+		{
+			if (nic.isDefault())
+			{
+				ipAddresses.add(0, nic.getIpAddress());
+			}
+			else
+			{
+				ipAddresses.add(nic.getIpAddress());
+			}
+		}
+	}
+
+	// a <nic> of the instance
+	public static class Nic
+	{
+		private String id;
+		private String networkId;
+		private String networkName;
+		private String ipAddress;
+		private String macAddress;
+		private boolean isDefault;
+
+		public String getId()
+		{
+			return id;
+		}
+
+		public String getNetworkId()
+		{
+			return networkId;
+		}
+
+		public String getNetworkName()
+		{
+			return networkName;
+		}
+
+		public String getIpAddress()
+		{
+			return ipAddress;
+		}
+
+		public String getMacAddress()
+		{
+			return macAddress;
+		}
+
+		public boolean isDefault()
+		{
+			return isDefault;
+		}
+
+		void setId(String id)
+		{
+			this.id = id;
+		}
+
+		void setNetworkId(String networkId)
+		{
+			this.networkId = networkId;
+		}
+
+		void setNetworkName(String networkName)
+		{
+			this.networkName = networkName;
+		}
+
+		void setIpAddress(String ipAddress)
+		{
+			this.ipAddress = ipAddress;
+		}
+
+		void setMacAddress(String macAddress)
+		{
+			this.macAddress = macAddress;
+		}
+
+		void setDefault(boolean isDefault)
+		{
+			this.isDefault = isDefault;
+		}
+	}
+}
@@ -0,0 +1,265 @@
+/**
+ * Copyright 2013 AppDynamics, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.appdynamics.cloudstack;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+// Account wide index of the virtual machines, kept current at a cost that follows the rate of change rather than
+// the size of the fleet. A full listVirtualMachines rebuilds it every fullSyncInterval; in between, a sync at most
+// once per ttl only re-lists the instances touched by async jobs started since the previous sync, plus those marked
+// dirty by the jobs this client tracks. Concurrent readers of a stale index wait for a single sync.
+class VirtualMachineIndex
+{
+	// covers jobs created while the previous sync ran and a small clock skew towards the management server
+	private static final long WATERMARK_OVERLAP = 120000;
+
+	// keeps a listVirtualMachines ids=... url at a sane length
+	private static final int IDS_PER_REQUEST = 100;
+
+	private static final String VIRTUAL_MACHINE = "VirtualMachine";
+
+	private final CloudStackClient client;
+	private final long ttl;
+	private final long fullSyncInterval;
+
+	private final Object syncLock = new Object();
+
+	private volatile ConcurrentMap<String, VirtualMachine> machines;
+	private volatile long syncedAt;
+	private volatile long fullSyncedAt;
+
+	// client time the last successful sync started at
+	private long watermark;
+
+	private final Set<String> dirty = new HashSet<String>();
+
+	private volatile Exception lastFailure;
+	private volatile long failedAt;
+
+	// a full sync interval not above the ttl lists the whole account on every sync
+	VirtualMachineIndex(CloudStackClient client, long ttl, long fullSyncInterval)
+	{
+		this.client = client;
+		this.ttl = ttl;
+		this.fullSyncInterval = fullSyncInterval;
+	}
+
+	// returns null if the virtual machine was not listed at the last sync
+	VirtualMachine get(String id) throws Exception
+	{
+		return sync().get(id);
+	}
+
+	// the instance changed, re-list it on the next sync which is no longer deferred to the ttl
+	void markDirty(String id)
+	{
+		if (id == null)
+		{
+			return;
+		}
+
+		synchronized (dirty)
+		{
+			dirty.add(id);
+		}
+
+		syncedAt = 0;
+	}
+
+	// throws the index away, the next read lists the whole account again
+	void invalidate()
+	{
+		fullSyncedAt = 0;
+		syncedAt = 0;
+	}
+
+	private ConcurrentMap<String, VirtualMachine> sync() throws Exception
+	{
+		ConcurrentMap<String, VirtualMachine> current = machines;
+
+		if (current != null && !isExpired(syncedAt, ttl))
+		{
+			return current;
+		}
+
+		synchronized (syncLock)
+		{
+			// another thread may have synced while this one was waiting
+			if (machines != null && !isExpired(syncedAt, ttl))
+			{
+				return machines;
+			}
+
+			// don't let every waiting thread repeat a call that just failed
+			if (lastFailure != null && !isExpired(failedAt, ttl))
+			{
+				throw lastFailure;
+			}
+
+			long now = System.currentTimeMillis();
+
+			try
+			{
+				if (machines == null || fullSyncInterval <= ttl || isExpired(fullSyncedAt, fullSyncInterval))
+				{
+					fullSync(now);
+				}
+				else
+				{
+					incrementalSync(now);
+				}
+
+				watermark = now;
+				syncedAt = now;
+				lastFailure = null;
+
+				return machines;
+			}
+			catch (Exception e)
+			{
+				lastFailure = e;
+				failedAt = System.currentTimeMillis();
+				throw e;
+			}
+		}
+	}
+
+	private void fullSync(long now) throws Exception
+	{
+		Set<String> changed = drainDirty();
+
+		try
+		{
+			List<VirtualMachine> listed = client.listVirtualMachines();
+			ConcurrentMap<String, VirtualMachine> synced = new ConcurrentHashMap<String, VirtualMachine>(
+					Math.max(16, listed.size() * 2));
+
+			for (VirtualMachine vm : listed)
+			{
+				synced.put(vm.getId(), vm);
+			}
+
+			machines = synced;
+			fullSyncedAt = now;
+		}
+		catch (Exception e)
+		{
+			restoreDirty(changed);
+			throw e;
+		}
+	}
+
+	private void incrementalSync(long now) throws Exception
+	{
+		Set<String> changed = drainDirty();
+
+		try
+		{
+			CloudStackResponse response = client.listAsyncJobsSince(formatStartDate(watermark - WATERMARK_OVERLAP));
+
+			// more jobs than one page: catching up costs about as much as listing everything
+			if (response.getCount() > response.getAsyncJobs().size())
+			{
+				restoreDirty(changed);
+				fullSync(now);
+				return;
+			}
+
+			for (AsyncJob job : response.getAsyncJobs())
+			{
+				if (job.getInstanceId() != null && VIRTUAL_MACHINE.equalsIgnoreCase(job.getInstanceType()))
+				{
+					changed.add(job.getInstanceId());
+				}
+			}
+
+			relist(changed);
+		}
+		catch (Exception e)
+		{
+			restoreDirty(changed);
+			throw e;
+		}
+	}
+
+	// refreshes the given instances, dropping those that are no longer listed
+	private void relist(Set<String> ids) throws Exception
+	{
+		ConcurrentMap<String, VirtualMachine> current = machines;
+		Iterator<String> remaining = ids.iterator();
+
+		while (remaining.hasNext())
+		{
+			List<String> chunk = new ArrayList<String>(IDS_PER_REQUEST);
+
+			while (remaining.hasNext() && chunk.size() < IDS_PER_REQUEST)
+			{
+				chunk.add(remaining.next());
+			}
+
+			Set<String> gone = new HashSet<String>(chunk);
+
+			for (VirtualMachine vm : client.listVirtualMachines(chunk))
+			{
+				current.put(vm.getId(), vm);
+				gone.remove(vm.getId());
+			}
+
+			for (String id : gone)
+			{
+				current.remove(id);
+			}
+		}
+	}
+
+	private Set<String> drainDirty()
+	{
+		synchronized (dirty)
+		{
+			Set<String> drained = new HashSet<String>(dirty);
+			dirty.clear();
+			return drained;
+		}
+	}
+
+	private void restoreDirty(Set<String> ids)
+	{
+		synchronized (dirty)
+		{
+			dirty.addAll(ids);
+		}
+	}
+
+	// listAsyncJobs startdate; with the offset included the management server reads the same instant whatever
+	// timezone it or the controller runs in
+	static String formatStartDate(long time)
+	{
+		return new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ").format(new Date(time));
+	}
+
+	private static boolean isExpired(long timestamp, long interval)
+	{
+		return System.currentTimeMillis() - timestamp >= interval;
+	}
+}
@@ -0,0 +1,185 @@
+/**
+ * Copyright 2013 AppDynamics, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.appdynamics.cloudstack;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+// walks listVirtualMachines page by page, fetching a page only when the previous one has been consumed.
+// With a concurrency above 1 the following pages are prefetched in parallel, never more than that many at a time,
+// so memory stays bounded by concurrency * pageSize entries whatever the size of the account.
+class VirtualMachineIterator implements Iterator<VirtualMachine>
+{
+	private final CloudStackClient client;
+	private final int pageSize;
+	private final int concurrency;
+	private final ExecutorService executor;
+
+	private final LinkedList<Future<List<VirtualMachine>>> prefetched = new LinkedList<Future<List<VirtualMachine>>>();
+
+	private Iterator<VirtualMachine> page;
+	private int lastPage = -1;
+	private int nextPage = 1;
+	private int nextPrefetch = 2;
+	private boolean exhausted;
+
+	VirtualMachineIterator(CloudStackClient client, int pageSize, int concurrency, ExecutorService executor)
+	{
+		this.client = client;
+		this.pageSize = pageSize;
+		this.concurrency = concurrency;
+		this.executor = executor;
+	}
+
+	public boolean hasNext()
+	{
+		while ((page == null || !page.hasNext()) && !exhausted)
+		{
+			try
+			{
+				page = fetchNextPage();
+			}
+			catch (Exception e)
+			{
+				exhausted = true;
+				cancelPrefetched();
+				throw new ListingException(e);
+			}
+		}
+
+		return page != null && page.hasNext();
+	}
+
+	public VirtualMachine next()
+	{
+		if (!hasNext())
+		{
+			throw new NoSuchElementException();
+		}
+
+		return page.next();
+	}
+
+	public void remove()
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	private Iterator<VirtualMachine> fetchNextPage() throws Exception
+	{
+		if (lastPage >= 0 && nextPage > lastPage)
+		{
+			exhausted = true;
+			return null;
+		}
+
+		List<VirtualMachine> vms;
+
+		if (nextPage == 1)
+		{
+			CloudStackResponse response = client.listVirtualMachinesPage(1, pageSize);
+			vms = response.getVirtualMachines();
+
+			if (response.getCount() >= 0)
+			{
+				lastPage = Math.max(1, (response.getCount() + pageSize - 1) / pageSize);
+			}
+		}
+		else if (concurrency > 1 && lastPage >= 0)
+		{
+			while (prefetched.size() < concurrency && nextPrefetch <= lastPage)
+			{
+				prefetched.add(executor.submit(new PageFetch(nextPrefetch++)));
+			}
+
+			vms = waitFor(prefetched.removeFirst());
+		}
+		else
+		{
+			vms = client.listVirtualMachinesPage(nextPage, pageSize).getVirtualMachines();
+		}
+
+		nextPage++;
+
+		// a short page is the last one, whether or not the server reported a count
+		if (vms.size() < pageSize)
+		{
+			exhausted = true;
+			cancelPrefetched();
+		}
+
+		return vms.iterator();
+	}
+
+	private List<VirtualMachine> waitFor(Future<List<VirtualMachine>> future) throws Exception
+	{
+		try
+		{
+			return future.get();
+		}
+		catch (ExecutionException e)
+		{
+			if (e.getCause() instanceof Exception)
+			{
+				throw (Exception) e.getCause();
+			}
+
+			throw e;
+		}
+	}
+
+	private void cancelPrefetched()
+	{
+		for (Future<List<VirtualMachine>> future : prefetched)
+		{
+			future.cancel(true);
+		}
+
+		prefetched.clear();
+	}
+
+	private class PageFetch implements Callable<List<VirtualMachine>>
+	{
+		private final int pageNumber;
+
+		PageFetch(int pageNumber)
+		{
+			this.pageNumber = pageNumber;
+		}
+
+		public List<VirtualMachine> call() throws Exception
+		{
+			return client.listVirtualMachinesPage(pageNumber, pageSize).getVirtualMachines();
+		}
+	}
+
+	// Iterator can't throw checked exceptions; CloudStackClient unwraps this back into the original failure
+	static class ListingException extends IllegalStateException
+	{
+		private static final long serialVersionUID = 1L;
+
+		ListingException(Exception cause)
+		{
+			super(cause.getMessage(), cause);
+		}
+	}
+}
@@ -0,0 +1,140 @@
+/**
+ * Copyright 2013 AppDynamics, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.appdynamics.cloudstack;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.helpers.DefaultHandler;
+
+// single pass, streaming parse of an xml api response straight into a CloudStackResponse
+class XmlResponseParser
+{
+	private static final SAXParserFactory factory = newFactory();
+
+	// SAXParser is not thread safe, but is cheap to reset and reuse on the same thread
+	private static final ThreadLocal<SAXParser> parsers = new ThreadLocal<SAXParser>()
+	{
+		@Override
+		protected SAXParser initialValue()
+		{
+			try
+			{
+				return factory.newSAXParser();
+			}
+			catch (Exception e)
+			{
+				throw new IllegalStateException("Unable to create xml parser", e);
+			}
+		}
+	};
+
+	static CloudStackResponse parse(InputStream in) throws Exception
+	{
+		if (in == null)
+		{
+			return CloudStackResponse.nullResponse();
+		}
+
+		BufferedInputStream body = new BufferedInputStream(in);
+		body.mark(1);
+
+		if (body.read() == -1)
+		{
+			return CloudStackResponse.nullResponse();
+		}
+
+		body.reset();
+
+		SAXParser parser = parsers.get();
+		Handler handler = new Handler();
+
+		try
+		{
+			parser.parse(body, handler);
+			return handler.builder.getResponse();
+		}
+		catch (IOException e)
+		{
+			// the connection failed or the body hit the size limit, not a malformed response
+			throw e;
+		}
+		catch (Exception e)
+		{
+			throw new Exception("Error reading xml response. " + e, e);
+		}
+		finally
+		{
+			parser.reset();
+		}
+	}
+
+	private static SAXParserFactory newFactory()
+	{
+		SAXParserFactory factory = SAXParserFactory.newInstance();
+		factory.setNamespaceAware(false);
+		factory.setValidating(false);
+
+		try
+		{
+			factory.setFeature("http://xml.org/sax/features/external-general-entities", false);
+			factory.setFeature("http://xml.org/sax/features/external-parameter-entities", false);
+		}
+		catch (Exception e)
+		{
+			// not supported by this parser implementation
+		}
+
+		return factory;
+	}
+
+	private static class Handler extends DefaultHandler
+	{
+		private final ResponseBuilder builder = new ResponseBuilder();
+		private final StringBuilder text = new StringBuilder();
+		private boolean leaf;
+
+		@Override
+		public void startElement(String uri, String localName, String qName, Attributes attributes)
+		{
+			builder.startElement(qName);
+			text.setLength(0);
+			leaf = true;
+		}
+
+		@Override
+		public void endElement(String uri, String localName, String qName)
+		{
+			builder.endElement(qName, leaf ? text.toString().trim() : null);
+			text.setLength(0);
+			leaf = false;
+		}
+
+		@Override
+		public void characters(char[] ch, int start, int length)
+		{
+			if (leaf)
+			{
+				text.append(ch, start, length);
+			}
+		}
+	}
+}
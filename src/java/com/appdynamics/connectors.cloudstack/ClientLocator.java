@@ -7,21 +7,41 @@
  */
 package com.appdynamics.connectors.cloudstack;
 
-import java.util.HashMap;
+import java.security.MessageDigest;
 import java.util.Map;
-
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.appdynamics.cloudstack.ClientOptions;
 import com.appdynamics.cloudstack.CloudStackClient;
 import com.singularity.ee.connectors.api.ConnectorException;
 import com.singularity.ee.connectors.api.IControllerServices;
 import com.singularity.ee.connectors.entity.api.IProperty;
 
+// Caches one authenticated client per credentials/end point. Lookups of authenticated clients never block; the
+// first lookup of a key authenticates while concurrent lookups of the same key wait for it, other keys are not held
+// up. Clients unused for a while are evicted and shut down, so rotated credentials don't pile up. Callers hold on
+// to a client for the length of a call without telling the cache, so only idle time, never the number of clients,
+// decides what is shut down.
 public class ClientLocator
 {
 	private static final ClientLocator INSTANCE = new ClientLocator();
 
-	private final Map<String, CloudStackClient> cloudStackClients = new HashMap<String, CloudStackClient>();
+	private static final Logger logger = Logger.getLogger(ClientLocator.class.getName());
+
+	static final long MAX_IDLE_TIME = 60 * 60 * 1000L;
+	private static final long SWEEP_INTERVAL = 60 * 1000L;
 
-	private final Object connectorLock = new Object();
+	// keyed by a digest of the credentials so the cache itself holds no secrets
+	private final ConcurrentMap<String, ClientEntry> cloudStackClients = new ConcurrentHashMap<String, ClientEntry>();
+
+	private final AtomicLong lastSweep = new AtomicLong(System.currentTimeMillis());
 
 	public static ClientLocator getInstance()
 	{
@@ -33,35 +53,162 @@ public class ClientLocator
 		String apiKey = Utils.getApiKey(props, controllerServices);
 		String secretKey = Utils.getSecretKey(props, controllerServices);
 		String endPoint = Utils.getEndPoint(props, controllerServices);
+		ClientOptions options = Utils.getClientOptions(props, controllerServices);
 
-		return getClient(secretKey, apiKey, endPoint);
+		return getClient(secretKey, apiKey, endPoint, options);
 	}
 
 	public CloudStackClient getClient(String secretkey, String apiKey, String endPoint) throws ConnectorException
 	{
-		synchronized (connectorLock)
+		return getClient(secretkey, apiKey, endPoint, new ClientOptions());
+	}
+
+	public CloudStackClient getClient(final String secretkey, final String apiKey, final String endPoint,
+			final ClientOptions options) throws ConnectorException
+	{
+		String identifier = digest(secretkey, apiKey, endPoint, options.toString());
+
+		sweepIfDue();
+
+		ClientEntry entry = cloudStackClients.get(identifier);
+
+		if (entry == null)
 		{
-			String identifier = secretkey + apiKey + endPoint;
+			ClientEntry created = new ClientEntry(new Callable<CloudStackClient>()
+			{
+				public CloudStackClient call() throws Exception
+				{
+					// for now there are only two connectors.cloudstack, Rackspace and HP; neither uses password for authentication.
+					CloudStackClient client = new CloudStackClient(apiKey, secretkey, endPoint, options);
+
+					if (!client.authenticate())
+					{
+						client.shutdown();
+						throw new ConnectorException("Invalid authentication credentials.");
+					}
+
+					return client;
+				}
+			});
 
-			if (cloudStackClients.containsKey(identifier))
+			entry = cloudStackClients.putIfAbsent(identifier, created);
+
+			if (entry == null)
 			{
-				return cloudStackClients.get(identifier);
+				entry = created;
+				entry.authentication.run();
 			}
+		}
 
-			// for now there are only two connectors.cloudstack, Rackspace and HP; neither uses password for authentication.
-			CloudStackClient client = new CloudStackClient(apiKey, secretkey, endPoint);
+		try
+		{
+			CloudStackClient client = entry.authentication.get();
+			entry.lastAccess = System.currentTimeMillis();
+			return client;
+		}
+		catch (ExecutionException e)
+		{
+			// don't cache failures, the next lookup authenticates again
+			cloudStackClients.remove(identifier, entry);
 
-			if (!client.authenticate())
+			if (e.getCause() instanceof ConnectorException)
 			{
-				throw new ConnectorException("Invalid authentication credentials.");
+				throw (ConnectorException) e.getCause();
 			}
 
-			cloudStackClients.put(identifier, client);
+			throw new ConnectorException(e.getCause().getMessage(), e.getCause());
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new ConnectorException("Interrupted while waiting for authentication", e);
+		}
+	}
 
-			return client;
+	private void sweepIfDue()
+	{
+		long now = System.currentTimeMillis();
+		long last = lastSweep.get();
 
+		// only one caller sweeps, everyone else carries on
+		if (now - last < SWEEP_INTERVAL || !lastSweep.compareAndSet(last, now))
+		{
+			return;
 		}
 
+		for (Map.Entry<String, ClientEntry> entry : cloudStackClients.entrySet())
+		{
+			if (entry.getValue().authentication.isDone() && now - entry.getValue().lastAccess > MAX_IDLE_TIME)
+			{
+				evict(entry.getKey(), entry.getValue());
+			}
+		}
 	}
 
+	private void evict(String identifier, ClientEntry entry)
+	{
+		if (!cloudStackClients.remove(identifier, entry))
+		{
+			return;
+		}
+
+		// looked up again while the sweep ran, keep it for that caller
+		if (System.currentTimeMillis() - entry.lastAccess <= MAX_IDLE_TIME
+				&& cloudStackClients.putIfAbsent(identifier, entry) == null)
+		{
+			return;
+		}
+
+		try
+		{
+			entry.authentication.get().shutdown();
+		}
+		catch (Exception e)
+		{
+			// authentication failed, nothing to shut down
+			logger.log(Level.FINE, "Evicted client that never authenticated", e);
+		}
+	}
+
+	private static String digest(String... parts) throws ConnectorException
+	{
+		try
+		{
+			MessageDigest sha = MessageDigest.getInstance("SHA-256");
+
+			for (String part : parts)
+			{
+				if (part != null)
+				{
+					sha.update(part.getBytes("UTF-8"));
+				}
+
+				sha.update((byte) 0);
+			}
+
+			StringBuilder hex = new StringBuilder();
+
+			for (byte b : sha.digest())
+			{
+				hex.append(Character.forDigit((b >> 4) & 0x0f, 16)).append(Character.forDigit(b & 0x0f, 16));
+			}
+
+			return hex.toString();
+		}
+		catch (Exception e)
+		{
+			throw new ConnectorException("Unable to compute client cache key", e);
+		}
+	}
+
+	private static class ClientEntry
+	{
+		private final FutureTask<CloudStackClient> authentication;
+		private volatile long lastAccess = System.currentTimeMillis();
+
+		ClientEntry(Callable<CloudStackClient> authenticator)
+		{
+			this.authentication = new FutureTask<CloudStackClient>(authenticator);
+		}
+	}
 }
@@ -13,16 +13,31 @@ import static com.singularity.ee.controller.KAppServerConstants.CONTROLLER_SERVI
 import static com.singularity.ee.controller.KAppServerConstants.DEFAULT_CONTROLLER_PORT_VALUE;
 
 import java.net.InetAddress;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.apache.commons.codec.binary.Base64;
+
 import com.singularity.ee.agent.resolver.AgentResolutionEncoder;
 import com.appdynamics.cloudstack.CloudStackClient;
-import com.appdynamics.cloudstack.CreateServerOptions;
+import com.appdynamics.cloudstack.Deadline;
+import com.appdynamics.cloudstack.DeadlineExceededException;
 import com.appdynamics.cloudstack.Server;
 import com.appdynamics.cloudstack.ServerStatus;
+import com.appdynamics.cloudstack.VirtualMachine;
 import com.singularity.ee.connectors.api.ConnectorException;
 import com.singularity.ee.connectors.api.IConnector;
 import com.singularity.ee.connectors.api.IControllerServices;
@@ -43,6 +58,24 @@ public class CloudStackConnector implements IConnector
 	private static volatile long counter;
 	private final Logger logger = Logger.getLogger(CloudStackConnector.class.getName());
 
+	// bulk creates against the same end point share its deploy permits
+	private static final ConcurrentMap<String, Semaphore> deployPermits = new ConcurrentHashMap<String, Semaphore>();
+
+	// share of the create machine timeout kept for terminating the instance of a failed create
+	private static final int ROLLBACK_RESERVE_PERCENT = 20;
+
+	private static final ThreadFactory provisioningThreads = new ThreadFactory()
+	{
+		private final AtomicInteger count = new AtomicInteger();
+
+		public Thread newThread(Runnable r)
+		{
+			Thread thread = new Thread(r, "cloudstack-provisioning-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	};
+
 	@Override
 	public IMachine createMachine(IComputeCenter computeCenter, IImage image, IMachineDescriptor machineDescriptor)
 			throws InvalidObjectException, ConnectorException
@@ -51,6 +84,10 @@ public class CloudStackConnector implements IConnector
 		boolean succeeded = false;
 		Exception createFailureRootCause = null;
 		Server server = null;
+		String displayName = newDisplayName();
+
+		long timeout = Utils.getCreateMachineTimeout(computeCenter.getProperties(), controllerServices);
+		Deadline deadline = Deadline.after(timeout);
 
 		CloudStackClient client = ClientLocator.getInstance().getClient(computeCenter.getProperties(), controllerServices);
 
@@ -68,7 +105,9 @@ public class CloudStackConnector implements IConnector
 			AgentResolutionEncoder agentResolutionEncoder = new AgentResolutionEncoder(controllerHost, controllerPort,
 					accountName, accessKey);
 
-			server = createServer(agentResolutionEncoder, image,  machineDescriptor.getProperties(), client);
+			// the create stops short of the deadline so a rollback still fits in it
+			server = createServer(agentResolutionEncoder, computeCenter, image, machineDescriptor.getProperties(),
+					displayName, client.withDeadline(deadline.shortenedBy(timeout * ROLLBACK_RESERVE_PERCENT / 100)));
 
 			IMachine machine = controllerServices.createMachineInstance(server.getId(),
 					agentResolutionEncoder.getUniqueHostIdentifier(), computeCenter, machineDescriptor, image,
@@ -91,7 +130,7 @@ public class CloudStackConnector implements IConnector
 			{
 				try
 				{
-					client.terminateVirtualMachine(server.getId());
+					client.withDeadline(deadline).terminateVirtualMachine(server.getId());
 				}
 				catch (Exception e)
 				{
@@ -101,73 +140,222 @@ public class CloudStackConnector implements IConnector
 							+ "create failure is following: ", createFailureRootCause);
 				}
 			}
+			else if (!succeeded && isTimeout(createFailureRootCause))
+			{
+				// the deploy may have gone through without its response reaching us
+				try
+				{
+					terminateByDisplayName(client.withDeadline(deadline), displayName);
+				}
+				catch (Exception e)
+				{
+					logger.log(Level.WARNING, "Failed cleaning up after the timed out create of " + displayName, e);
+					throw new ConnectorException("Machine create timed out and looking up the instance failed! "
+							+ "We may have an orphan " + computeCenter.getType().getName() + " instance with display "
+							+ "name: " + displayName + " that must be shut down manually. Root cause for machine "
+							+ "create failure is following: ", createFailureRootCause);
+				}
+			}
 		}
 
 	}
 
-	protected Server createServer(AgentResolutionEncoder agentResolutionEncoder, IImage image, IProperty[] machineProps,
-			CloudStackClient client) throws Exception
+	private static String newDisplayName()
 	{
-		String serviceOfferingId = Utils.getServiceOfferingId(machineProps, controllerServices);
-		String templateId = Utils.getTemplateId(image.getProperties(), controllerServices);
-		String zoneId = Utils.getZoneId(machineProps, controllerServices);
-		String account = Utils.getAccount(machineProps, controllerServices);
-		String diskOfferingId = Utils.getDiskOfferingId(machineProps, controllerServices);
-		String domainId = Utils.getDomainId(machineProps, controllerServices);
-		String name = Utils.getName(machineProps, controllerServices);
-		String networkIds = Utils.getNetworkid(machineProps, controllerServices);
-		String group = Utils.getGroup(machineProps, controllerServices);
-		String hostId = Utils.getHostId(machineProps, controllerServices);
-		String hypervisor = Utils.getHypervisor(machineProps, controllerServices);
-		String keyPair = Utils.getKeypair(machineProps, controllerServices);
-		String securityGroupNames = Utils.getSecurityGroupNames(machineProps, controllerServices);
-		String securityGroupIds = Utils.getSecurityGroupId(machineProps, controllerServices);
-		String size = Utils.getSize(machineProps, controllerServices);
-		String ipAddress= Utils.getIpAddress(machineProps, controllerServices);
-		String keyboard= Utils.getKeyboard(machineProps, controllerServices);
-		String projectId = Utils.getProjectId(machineProps, controllerServices);
-		Map<String, String> ipToNetworkList = Utils.getIpToNetworkList(machineProps, controllerServices);
-		
-		Server server = null;
-
 		long count;
 
 		synchronized (counterLock)
 		{
 			count = counter++;
 		}
-		
-		CreateServerOptions options = new CreateServerOptions();
-		options.setAccount(account);
-		options.setDomainId(domainId);
-		options.setName(name);
-		options.setIpToNetworkList(ipToNetworkList);
-		options.setDiskOfferingId(diskOfferingId);
-		options.setDisplayName("AD_" + System.currentTimeMillis() + count);
-		options.setGroup(group);
-		options.setHostId(hostId);
-		options.setHypervisor(hypervisor);
-		options.setIpAddress(ipAddress);
-		options.setKeyPair(keyPair);
-		options.setSize(size);
-		options.setUserData(agentResolutionEncoder.encodeAgentResolutionInfo());
-		options.setNetworkId(networkIds);
-		options.setSecurityGroupNames(securityGroupNames);
-		options.setSecurityGroupIds(securityGroupIds);
-		options.setKeyboard(keyboard);
-		options.setProjectId(projectId);
-	
-		server = client.deployVirtualMachine(serviceOfferingId, templateId, zoneId, options);
+
+		return "AD_" + System.currentTimeMillis() + count;
+	}
+
+	private static boolean isTimeout(Throwable failure)
+	{
+		for (Throwable cause = failure; cause != null; cause = cause.getCause())
+		{
+			if (cause instanceof DeadlineExceededException || cause instanceof SocketTimeoutException)
+			{
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	// display names are unique per create, so whatever carries this one was deployed for the failed create
+	private void terminateByDisplayName(CloudStackClient client, String displayName) throws Exception
+	{
+		boolean found = false;
+
+		for (VirtualMachine vm : client.findVirtualMachines(displayName))
+		{
+			if (displayName.equals(vm.getDisplayName()))
+			{
+				found = true;
+				client.terminateVirtualMachine(vm.getId());
+				logger.info("Terminated instance " + vm.getId() + " left behind by a timed out create");
+			}
+		}
+
+		if (!found)
+		{
+			logger.info("No instance with display name " + displayName + " found after the create timed out; "
+					+ "should the deploy still go through, that instance must be shut down manually");
+		}
+	}
+
+	// Creates one machine per descriptor, deploying up to Max Concurrent Deploys of them in parallel per end point.
+	// Each request succeeds or fails on its own; a failed one is rolled back exactly like createMachine does.
+	public List<ProvisioningResult> createMachines(final IComputeCenter computeCenter, final IImage image,
+			List<IMachineDescriptor> machineDescriptors) throws ConnectorException
+	{
+		IProperty[] props = computeCenter.getProperties();
+		int maxConcurrentDeploys = Utils.getMaxConcurrentDeploys(props, controllerServices);
+		final Semaphore permits = getDeployPermits(Utils.getEndPoint(props, controllerServices), maxConcurrentDeploys);
+
+		// fail the whole batch early on bad credentials instead of once per machine
+		ClientLocator.getInstance().getClient(props, controllerServices);
+
+		ExecutorService executor = Executors.newFixedThreadPool(
+				Math.max(1, Math.min(maxConcurrentDeploys, machineDescriptors.size())), provisioningThreads);
+
+		try
+		{
+			List<Future<IMachine>> futures = new ArrayList<Future<IMachine>>();
+
+			for (final IMachineDescriptor machineDescriptor : machineDescriptors)
+			{
+				futures.add(executor.submit(new Callable<IMachine>()
+				{
+					public IMachine call() throws Exception
+					{
+						permits.acquire();
+
+						try
+						{
+							return createMachine(computeCenter, image, machineDescriptor);
+						}
+						finally
+						{
+							permits.release();
+						}
+					}
+				}));
+			}
+
+			List<ProvisioningResult> results = new ArrayList<ProvisioningResult>();
+
+			for (int i = 0; i < futures.size(); i++)
+			{
+				IMachineDescriptor machineDescriptor = machineDescriptors.get(i);
+
+				try
+				{
+					results.add(new ProvisioningResult(machineDescriptor, futures.get(i).get(), null));
+				}
+				catch (ExecutionException e)
+				{
+					Throwable cause = e.getCause();
+					ConnectorException failure = cause instanceof ConnectorException ? (ConnectorException) cause
+							: new ConnectorException(cause.getMessage(), cause);
+
+					results.add(new ProvisioningResult(machineDescriptor, null, failure));
+				}
+			}
+
+			return results;
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new ConnectorException("Interrupted while waiting for machines to be created", e);
+		}
+		finally
+		{
+			// lets the submitted creates finish, the controller learns about them through createMachineInstance
+			executor.shutdown();
+		}
+	}
+
+	private static Semaphore getDeployPermits(String endPoint, int maxConcurrentDeploys)
+	{
+		String key = endPoint + "#" + maxConcurrentDeploys;
+		Semaphore permits = deployPermits.get(key);
+
+		if (permits == null)
+		{
+			deployPermits.putIfAbsent(key, new Semaphore(maxConcurrentDeploys));
+			permits = deployPermits.get(key);
+		}
+
+		return permits;
+	}
+
+	protected Server createServer(AgentResolutionEncoder agentResolutionEncoder, IComputeCenter computeCenter,
+			IImage image, IProperty[] machineProps, String displayName, CloudStackClient client) throws Exception
+	{
+		MachineProfile profile = MachineProfile.get(machineProps, image.getProperties(), controllerServices);
+
+		String userData = new String(
+				Base64.encodeBase64(agentResolutionEncoder.encodeAgentResolutionInfo().getBytes()));
+
+		Server server = startStandby(computeCenter, profile, displayName, userData, client);
+
+		if (server == null)
+		{
+			server = client.deployVirtualMachine(profile.getDeploymentParameters(), displayName, userData);
+		}
 
 		logger.info("Cloudstack Instance created with instance id: " + server.getId());
 		
 		return server;
 	}
 
+	// starts a standby instance from the warm pool with this machine's user data; null when none is available
+	private Server startStandby(IComputeCenter computeCenter, MachineProfile profile, String displayName,
+			String userData, CloudStackClient client)
+	{
+		String standbyId = WarmPool.getInstance().claim(computeCenter, profile, controllerServices);
+
+		if (standbyId == null)
+		{
+			return null;
+		}
+
+		try
+		{
+			// the agent finds its controller and host identity in the user data, it must be set before the boot
+			client.updateVirtualMachine(standbyId, displayName, userData);
+			Server server = client.startVirtualMachine(standbyId);
+
+			logger.info("Claimed standby instance " + standbyId + " from the warm pool");
+			return server;
+		}
+		catch (Exception e)
+		{
+			logger.log(Level.WARNING, "Failed starting standby instance " + standbyId + ", deploying a new one", e);
+
+			try
+			{
+				client.terminateVirtualMachine(standbyId);
+			}
+			catch (Exception terminateFailure)
+			{
+				logger.log(Level.WARNING, "Failed destroying standby instance " + standbyId
+						+ ", it must be destroyed manually", terminateFailure);
+			}
+
+			return null;
+		}
+	}
+
 	public String getIpAddress(IMachine machine, CloudStackClient client)
 			throws Exception
 	{
-		List<String> ipAddress = client.listIpAddress(machine.getName());
+		List<String> ipAddress = client.getCachedIpAddress(machine.getName());
 		return ipAddress.iterator().next();
 
 	}
@@ -185,7 +373,15 @@ public class CloudStackConnector implements IConnector
 				CloudStackClient client = ClientLocator.getInstance().getClient(machine.getComputeCenter().getProperties(),
 						controllerServices);
 
-				ServerStatus serverStatus = client.getServerStatus(serverId);
+				if (client.hasPendingJob(serverId))
+				{
+					// still deploying, the state will change once the async job completes
+					return;
+				}
+
+				// state and addresses come from the same lookup
+				VirtualMachine vm = client.getCachedVirtualMachine(serverId);
+				ServerStatus serverStatus = vm == null ? null : vm.getStatus();
 
 				if (serverStatus == null)
 				{
@@ -199,7 +395,13 @@ public class CloudStackConnector implements IConnector
 				else if (serverStatus == ServerStatus.RUNNING)
 				{
 
-					String ipAddress = getIpAddress(machine, client);
+					if (vm.getIpAddresses().isEmpty())
+					{
+						// no address assigned yet, look again on the next refresh
+						return;
+					}
+
+					String ipAddress = vm.getIpAddresses().get(0);
 
 					String currentIpAddress = machine.getIpAddress();
 
@@ -228,7 +430,7 @@ public class CloudStackConnector implements IConnector
 
 				try
 				{
-					serverStatus = client.getServerStatus(serverId);
+					serverStatus = client.getCachedServerStatus(serverId);
 				}
 				catch (Exception e)
 				{
@@ -302,10 +504,8 @@ public class CloudStackConnector implements IConnector
 	{
 		try
 		{
-			String apiKey = Utils.getApiKey(computeCenter.getProperties(), controllerServices);
-			String secretKey = Utils.getSecretKey(computeCenter.getProperties(), controllerServices);
 			String endPoint = Utils.getEndPoint(computeCenter.getProperties(), controllerServices);
-			logger.info(apiKey + " " + secretKey + " " + endPoint);
+			logger.info("Validating credentials against " + endPoint);
 			ClientLocator.getInstance().getClient(computeCenter.getProperties(), controllerServices);
 		}
 		catch (Exception e)
@@ -322,10 +522,8 @@ public class CloudStackConnector implements IConnector
 	{
 		try
 		{
-			String apiKey = Utils.getApiKey(imageStore.getProperties(), controllerServices);
-			String secretKey = Utils.getSecretKey(imageStore.getProperties(), controllerServices);
 			String endPoint = Utils.getEndPoint(imageStore.getProperties(), controllerServices);
-			logger.info(apiKey + " " + secretKey + " " + endPoint);
+			logger.info("Validating credentials against " + endPoint);
 			
 			ClientLocator.getInstance().getClient(imageStore.getProperties(), controllerServices);
 		}
@@ -0,0 +1,166 @@
+/*
+ *   Copyright 2018. AppDynamics LLC and its affiliates.
+ *   All Rights Reserved.
+ *   This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ *   The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+package com.appdynamics.connectors.cloudstack;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.appdynamics.cloudstack.CreateServerOptions;
+import com.appdynamics.cloudstack.DeploymentParameters;
+import com.singularity.ee.connectors.api.IControllerServices;
+import com.singularity.ee.connectors.entity.api.IProperty;
+import com.singularity.ee.connectors.entity.api.IStringProperty;
+
+// Everything a deploy needs from a machine descriptor and its image, resolved and validated once. Profiles are
+// cached by the values of the properties they were resolved from, so editing the descriptor or image yields a new
+// profile on the next deploy and the old one simply stops being looked up.
+final class MachineProfile
+{
+	// a controller has a handful of descriptors; the cache is dropped whole if edits pile up stale entries
+	private static final int MAX_PROFILES = 256;
+
+	private static final ConcurrentMap<String, MachineProfile> profiles = new ConcurrentHashMap<String, MachineProfile>();
+
+	private final String fingerprint;
+	private final String serviceOfferingId;
+	private final String templateId;
+	private final String zoneId;
+	private final DeploymentParameters deploymentParameters;
+
+	private MachineProfile(String fingerprint, IProperty[] machineProps, IProperty[] imageProps,
+			IControllerServices controllerServices) throws Exception
+	{
+		this.fingerprint = fingerprint;
+		serviceOfferingId = Utils.getServiceOfferingId(machineProps, controllerServices);
+		templateId = Utils.getTemplateId(imageProps, controllerServices);
+		zoneId = Utils.getZoneId(machineProps, controllerServices);
+
+		if (serviceOfferingId == null)
+		{
+			throw new Exception("Error, " + Utils.SERVICE_OFFERING_ID + " must be set");
+		}
+
+		if (templateId == null)
+		{
+			throw new Exception("Error, " + Utils.TEMPLATE_ID + " must be set on the image");
+		}
+
+		if (zoneId == null)
+		{
+			throw new Exception("Error, " + Utils.ZONE_ID + " must be set");
+		}
+
+		CreateServerOptions options = new CreateServerOptions();
+		options.setAccount(Utils.getAccount(machineProps, controllerServices));
+		options.setDomainId(Utils.getDomainId(machineProps, controllerServices));
+		options.setName(Utils.getName(machineProps, controllerServices));
+		options.setIpToNetworkList(Utils.getIpToNetworkList(machineProps, controllerServices));
+		options.setDiskOfferingId(Utils.getDiskOfferingId(machineProps, controllerServices));
+		options.setGroup(Utils.getGroup(machineProps, controllerServices));
+		options.setHostId(Utils.getHostId(machineProps, controllerServices));
+		options.setHypervisor(Utils.getHypervisor(machineProps, controllerServices));
+		options.setIpAddress(Utils.getIpAddress(machineProps, controllerServices));
+		options.setKeyPair(Utils.getKeypair(machineProps, controllerServices));
+		options.setSize(Utils.getSize(machineProps, controllerServices));
+		options.setNetworkId(Utils.getNetworkid(machineProps, controllerServices));
+		options.setSecurityGroupNames(Utils.getSecurityGroupNames(machineProps, controllerServices));
+		options.setSecurityGroupIds(Utils.getSecurityGroupId(machineProps, controllerServices));
+		options.setKeyboard(Utils.getKeyboard(machineProps, controllerServices));
+		options.setProjectId(Utils.getProjectId(machineProps, controllerServices));
+
+		deploymentParameters = new DeploymentParameters(serviceOfferingId, templateId, zoneId, options);
+	}
+
+	// the cached profile for these properties, resolving and validating it on first use
+	static MachineProfile get(IProperty[] machineProps, IProperty[] imageProps, IControllerServices controllerServices)
+			throws Exception
+	{
+		String fingerprint = fingerprint(machineProps, imageProps);
+		MachineProfile profile = profiles.get(fingerprint);
+
+		if (profile == null)
+		{
+			// resolving twice on a race is harmless, both profiles are equal
+			profile = new MachineProfile(fingerprint, machineProps, imageProps, controllerServices);
+
+			if (profiles.size() >= MAX_PROFILES)
+			{
+				profiles.clear();
+			}
+
+			profiles.put(fingerprint, profile);
+		}
+
+		return profile;
+	}
+
+	// equal for profiles resolved from equal properties
+	String getFingerprint()
+	{
+		return fingerprint;
+	}
+
+	String getServiceOfferingId()
+	{
+		return serviceOfferingId;
+	}
+
+	String getTemplateId()
+	{
+		return templateId;
+	}
+
+	String getZoneId()
+	{
+		return zoneId;
+	}
+
+	DeploymentParameters getDeploymentParameters()
+	{
+		return deploymentParameters;
+	}
+
+	// one pass over the properties; lengths are included so no two different property sets run together equally
+	private static String fingerprint(IProperty[] machineProps, IProperty[] imageProps)
+	{
+		StringBuilder fingerprint = new StringBuilder(256);
+		append(fingerprint, machineProps);
+		fingerprint.append('|');
+		append(fingerprint, imageProps);
+		return fingerprint.toString();
+	}
+
+	private static void append(StringBuilder fingerprint, IProperty[] properties)
+	{
+		if (properties == null)
+		{
+			return;
+		}
+
+		for (IProperty property : properties)
+		{
+			String name = property.getDefinition() == null ? null : property.getDefinition().getName();
+			String value = property instanceof IStringProperty ? ((IStringProperty) property).getValue() : null;
+
+			appendField(fingerprint, name);
+			appendField(fingerprint, value);
+		}
+	}
+
+	private static void appendField(StringBuilder fingerprint, String field)
+	{
+		if (field == null)
+		{
+			fingerprint.append('-');
+		}
+		else
+		{
+			fingerprint.append(field.length()).append(':').append(field);
+		}
+	}
+}
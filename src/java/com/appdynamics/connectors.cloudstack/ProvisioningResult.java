@@ -0,0 +1,47 @@
+/*
+ *   Copyright 2018. AppDynamics LLC and its affiliates.
+ *   All Rights Reserved.
+ *   This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ *   The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+package com.appdynamics.connectors.cloudstack;
+
+import com.singularity.ee.connectors.api.ConnectorException;
+import com.singularity.ee.connectors.entity.api.IMachine;
+import com.singularity.ee.connectors.entity.api.IMachineDescriptor;
+
+// outcome of one machine request of CloudStackConnector.createMachines; exactly one of machine and failure is set
+public class ProvisioningResult
+{
+	private final IMachineDescriptor machineDescriptor;
+	private final IMachine machine;
+	private final ConnectorException failure;
+
+	ProvisioningResult(IMachineDescriptor machineDescriptor, IMachine machine, ConnectorException failure)
+	{
+		this.machineDescriptor = machineDescriptor;
+		this.machine = machine;
+		this.failure = failure;
+	}
+
+	public IMachineDescriptor getMachineDescriptor()
+	{
+		return machineDescriptor;
+	}
+
+	public IMachine getMachine()
+	{
+		return machine;
+	}
+
+	public ConnectorException getFailure()
+	{
+		return failure;
+	}
+
+	public boolean isSucceeded()
+	{
+		return machine != null;
+	}
+}
@@ -10,6 +10,8 @@ package com.appdynamics.connectors.cloudstack;
 import java.util.HashMap;
 import java.util.Map;
 
+import com.appdynamics.cloudstack.ClientOptions;
+import com.appdynamics.cloudstack.ResponseFormat;
 import com.singularity.ee.connectors.api.IControllerServices;
 import com.singularity.ee.connectors.entity.api.IProperty;
 
@@ -42,6 +44,30 @@ public class Utils
 	public static final String PROJECT_ID = "Project Id";
 	public static final String IP_TO_NETWORKLIST = "Ip To Network List";
 
+	public static final String MAX_CONNECTIONS_PER_HOST = "Max Connections Per Host";
+	public static final String IDLE_CONNECTION_TIMEOUT = "Idle Connection Timeout";
+	public static final String MACHINE_STATE_CACHE_TTL = "Machine State Cache Ttl";
+	public static final String MACHINE_STATE_FULL_SYNC_INTERVAL = "Machine State Full Sync Interval";
+	public static final String LIST_PAGE_SIZE = "List Page Size";
+	public static final String LIST_PAGE_CONCURRENCY = "List Page Concurrency";
+	public static final String MAX_CONCURRENT_DEPLOYS = "Max Concurrent Deploys";
+	public static final String WARM_POOL_SIZE = "Warm Pool Size";
+	public static final String WARM_POOL_MAX_AGE = "Warm Pool Max Age";
+	public static final String MAX_REQUESTS_PER_SECOND = "Max Requests Per Second";
+	public static final String MAX_CONCURRENT_REQUESTS = "Max Concurrent Requests";
+	public static final String MAX_RETRIES = "Max Retries";
+	public static final String MAX_RESPONSE_SIZE = "Max Response Size";
+	public static final String RESPONSE_FORMAT = "Response Format";
+	public static final String CONNECT_TIMEOUT = "Connect Timeout";
+	public static final String SOCKET_TIMEOUT = "Socket Timeout";
+	public static final String CONNECTION_POOL_TIMEOUT = "Connection Pool Timeout";
+	public static final String CREATE_MACHINE_TIMEOUT = "Create Machine Timeout";
+
+	public static final int DEFAULT_MAX_CONCURRENT_DEPLOYS = 10;
+	public static final int DEFAULT_WARM_POOL_SIZE = 0;
+	public static final int DEFAULT_WARM_POOL_MAX_AGE = 21600;
+	public static final int DEFAULT_CREATE_MACHINE_TIMEOUT = 300;
+
 	public static Map<String, String> getIpToNetworkList(IProperty[] properties, IControllerServices controllerServices)
 			throws Exception
 	{
@@ -136,18 +162,33 @@ public class Utils
 		return getValue(controllerServices.getStringPropertyValueByName(properties, SECRET_KEY));
 	}
 
+	// one url, or the urls of several management servers of the same cloud separated by commas
 	public static String getEndPoint(IProperty[] properties, IControllerServices controllerServices)
 	{
-		String url = getValue(controllerServices.getStringPropertyValueByName(properties, END_POINT));
+		String value = getValue(controllerServices.getStringPropertyValueByName(properties, END_POINT));
+		StringBuilder urls = new StringBuilder();
 
-		if (url.substring(url.length() - 1).equals("/"))
-		{
-			return url.substring(0, url.length() - 1);
-		}
-		else
+		for (String url : value.split(","))
 		{
-			return url;
+			url = url.trim();
+
+			if (url.endsWith("/"))
+			{
+				url = url.substring(0, url.length() - 1);
+			}
+
+			if (url.length() > 0)
+			{
+				if (urls.length() > 0)
+				{
+					urls.append(',');
+				}
+
+				urls.append(url);
+			}
 		}
+
+		return urls.toString();
 	}
 
 	public static String getAccount(IProperty[] properties, IControllerServices controllerServices)
@@ -185,6 +226,131 @@ public class Utils
 		return getValue(controllerServices.getStringPropertyValueByName(properties, NETWORK_ID));
 	}
 
+	public static int getMaxConcurrentDeploys(IProperty[] properties, IControllerServices controllerServices)
+	{
+		return getIntValue(controllerServices.getStringPropertyValueByName(properties, MAX_CONCURRENT_DEPLOYS),
+				DEFAULT_MAX_CONCURRENT_DEPLOYS, 1);
+	}
+
+	// stopped standby instances kept per machine profile, 0 turns the warm pool off
+	public static int getWarmPoolSize(IProperty[] properties, IControllerServices controllerServices)
+	{
+		return getIntValue(controllerServices.getStringPropertyValueByName(properties, WARM_POOL_SIZE),
+				DEFAULT_WARM_POOL_SIZE, 0);
+	}
+
+	// milliseconds, configured in seconds
+	public static long getWarmPoolMaxAge(IProperty[] properties, IControllerServices controllerServices)
+	{
+		return getIntValue(controllerServices.getStringPropertyValueByName(properties, WARM_POOL_MAX_AGE),
+				DEFAULT_WARM_POOL_MAX_AGE, 1) * 1000L;
+	}
+
+	// milliseconds, configured in seconds
+	public static long getCreateMachineTimeout(IProperty[] properties, IControllerServices controllerServices)
+	{
+		return getIntValue(controllerServices.getStringPropertyValueByName(properties, CREATE_MACHINE_TIMEOUT),
+				DEFAULT_CREATE_MACHINE_TIMEOUT, 1) * 1000L;
+	}
+
+	public static ClientOptions getClientOptions(IProperty[] properties, IControllerServices controllerServices)
+	{
+		ClientOptions options = new ClientOptions();
+
+		options.setMaxConnectionsPerHost(getIntValue(
+				controllerServices.getStringPropertyValueByName(properties, MAX_CONNECTIONS_PER_HOST),
+				ClientOptions.DEFAULT_MAX_CONNECTIONS_PER_HOST, 1));
+
+		// configured in seconds
+		options.setIdleConnectionTimeout(getIntValue(
+				controllerServices.getStringPropertyValueByName(properties, IDLE_CONNECTION_TIMEOUT),
+				(int) (ClientOptions.DEFAULT_IDLE_CONNECTION_TIMEOUT / 1000), 1) * 1000L);
+
+		// configured in seconds, 0 turns the cache off
+		options.setMachineStateCacheTtl(getIntValue(
+				controllerServices.getStringPropertyValueByName(properties, MACHINE_STATE_CACHE_TTL),
+				(int) (ClientOptions.DEFAULT_MACHINE_STATE_CACHE_TTL / 1000), 0) * 1000L);
+
+		// configured in seconds, 0 lists the whole account on every refresh
+		options.setMachineStateFullSyncInterval(getIntValue(
+				controllerServices.getStringPropertyValueByName(properties, MACHINE_STATE_FULL_SYNC_INTERVAL),
+				(int) (ClientOptions.DEFAULT_MACHINE_STATE_FULL_SYNC_INTERVAL / 1000), 0) * 1000L);
+
+		options.setListPageSize(getIntValue(
+				controllerServices.getStringPropertyValueByName(properties, LIST_PAGE_SIZE),
+				ClientOptions.DEFAULT_LIST_PAGE_SIZE, 1));
+
+		options.setListPageConcurrency(getIntValue(
+				controllerServices.getStringPropertyValueByName(properties, LIST_PAGE_CONCURRENCY),
+				ClientOptions.DEFAULT_LIST_PAGE_CONCURRENCY, 1));
+
+		// 0 turns the rate limit off
+		options.setMaxRequestsPerSecond(getIntValue(
+				controllerServices.getStringPropertyValueByName(properties, MAX_REQUESTS_PER_SECOND),
+				(int) ClientOptions.DEFAULT_MAX_REQUESTS_PER_SECOND, 0));
+
+		options.setMaxConcurrentRequests(getIntValue(
+				controllerServices.getStringPropertyValueByName(properties, MAX_CONCURRENT_REQUESTS),
+				ClientOptions.DEFAULT_MAX_CONCURRENT_REQUESTS, 1));
+
+		options.setMaxRetries(getIntValue(controllerServices.getStringPropertyValueByName(properties, MAX_RETRIES),
+				ClientOptions.DEFAULT_MAX_RETRIES, 0));
+
+		// configured in megabytes
+		options.setMaxResponseSize(getIntValue(
+				controllerServices.getStringPropertyValueByName(properties, MAX_RESPONSE_SIZE),
+				(int) (ClientOptions.DEFAULT_MAX_RESPONSE_SIZE / (1024 * 1024)), 1) * 1024L * 1024);
+
+		// timeouts are configured in seconds
+		options.setConnectTimeout(getIntValue(
+				controllerServices.getStringPropertyValueByName(properties, CONNECT_TIMEOUT),
+				ClientOptions.DEFAULT_CONNECT_TIMEOUT / 1000, 1) * 1000);
+
+		options.setSocketTimeout(getIntValue(
+				controllerServices.getStringPropertyValueByName(properties, SOCKET_TIMEOUT),
+				ClientOptions.DEFAULT_SOCKET_TIMEOUT / 1000, 1) * 1000);
+
+		options.setConnectionManagerTimeout(getIntValue(
+				controllerServices.getStringPropertyValueByName(properties, CONNECTION_POOL_TIMEOUT),
+				(int) (ClientOptions.DEFAULT_CONNECTION_MANAGER_TIMEOUT / 1000), 1) * 1000L);
+
+		String responseFormat = getValue(controllerServices.getStringPropertyValueByName(properties, RESPONSE_FORMAT));
+
+		if (responseFormat != null)
+		{
+			try
+			{
+				options.setResponseFormat(ResponseFormat.valueOf(responseFormat.toUpperCase()));
+			}
+			catch (IllegalArgumentException e)
+			{
+				// keep the default, like any other unparsable value
+			}
+		}
+
+		return options;
+	}
+
+	private static int getIntValue(String value, int defaultValue, int minValue)
+	{
+		value = getValue(value);
+
+		if (value == null)
+		{
+			return defaultValue;
+		}
+
+		try
+		{
+			int intValue = Integer.parseInt(value);
+			return intValue >= minValue ? intValue : defaultValue;
+		}
+		catch (NumberFormatException e)
+		{
+			return defaultValue;
+		}
+	}
+
 	private static String getValue(String value)
 	{
 		return (value == null || value.trim().length() == 0) ? null : value.trim();
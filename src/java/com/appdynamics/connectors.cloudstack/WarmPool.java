@@ -0,0 +1,493 @@
+/*
+ *   Copyright 2018. AppDynamics LLC and its affiliates.
+ *   All Rights Reserved.
+ *   This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ *   The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+package com.appdynamics.connectors.cloudstack;
+
+import static com.singularity.ee.controller.KAppServerConstants.CONTROLLER_SERVICES_HOST_NAME_PROPERTY_KEY;
+import static com.singularity.ee.controller.KAppServerConstants.CONTROLLER_SERVICES_PORT_PROPERTY_KEY;
+import static com.singularity.ee.controller.KAppServerConstants.DEFAULT_CONTROLLER_PORT_VALUE;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.appdynamics.cloudstack.AsyncJob;
+import com.appdynamics.cloudstack.AsyncJobFuture;
+import com.appdynamics.cloudstack.AsyncJobListener;
+import com.appdynamics.cloudstack.CloudStackClient;
+import com.appdynamics.cloudstack.Server;
+import com.appdynamics.cloudstack.ServerStatus;
+import com.appdynamics.cloudstack.VirtualMachine;
+import com.singularity.ee.connectors.api.IControllerServices;
+import com.singularity.ee.connectors.entity.api.IComputeCenter;
+import com.singularity.ee.connectors.entity.api.IProperty;
+
+// Stopped standby instances deployed ahead of demand, one pool per compute center and machine profile. Claiming
+// one lets createMachine set the user data and start it instead of waiting for a deploy. A background task tops
+// the pools back up after claims and destroys standbys older than the max age, so they don't drift away from
+// the template for too long; shrinking Warm Pool Size destroys the surplus the same way. Each pool refills on its
+// own thread so a slow endpoint only holds up its own pools.
+class WarmPool
+{
+	private static final Logger logger = Logger.getLogger(WarmPool.class.getName());
+
+	private static final long REFILL_INTERVAL = 60000;
+
+	private static final String STANDBY_DISPLAY_NAME_PREFIX = "AD_STANDBY_";
+
+	// tells this controller's standbys apart from those of other controllers deploying into the same account
+	private static final String CONTROLLER_TAG = controllerTag();
+
+	private static final ThreadFactory threadFactory = new ThreadFactory()
+	{
+		public Thread newThread(Runnable r)
+		{
+			Thread thread = new Thread(r, "cloudstack-warm-pool");
+			thread.setDaemon(true);
+			return thread;
+		}
+	};
+
+	private static final WarmPool instance = new WarmPool();
+
+	private final ConcurrentMap<String, Pool> pools = new ConcurrentHashMap<String, Pool>();
+
+	private final AtomicLong counter = new AtomicLong();
+
+	// only hands the periodic refills over to the refills executor, it never blocks on an endpoint
+	private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(threadFactory);
+
+	private final ExecutorService refills = Executors.newCachedThreadPool(threadFactory);
+
+	private WarmPool()
+	{
+		scheduler.scheduleWithFixedDelay(new Runnable()
+		{
+			public void run()
+			{
+				for (Pool pool : pools.values())
+				{
+					pool.scheduleRefill();
+				}
+			}
+		}, REFILL_INTERVAL, REFILL_INTERVAL, TimeUnit.MILLISECONDS);
+	}
+
+	static WarmPool getInstance()
+	{
+		return instance;
+	}
+
+	// id of a stopped standby instance now owned by the caller, or null when the pool is off or empty. Either way
+	// the pool is scheduled for a refill.
+	String claim(IComputeCenter computeCenter, MachineProfile profile, IControllerServices controllerServices)
+	{
+		IProperty[] props = computeCenter.getProperties();
+		int size = Utils.getWarmPoolSize(props, controllerServices);
+		String key = computeCenter.getName() + "|" + Utils.getEndPoint(props, controllerServices) + "|"
+				+ profile.getFingerprint();
+
+		Pool pool = pools.get(key);
+
+		if (pool == null)
+		{
+			if (size == 0)
+			{
+				return null;
+			}
+
+			Pool created = new Pool(key);
+			pool = pools.putIfAbsent(key, created);
+
+			if (pool == null)
+			{
+				pool = created;
+			}
+		}
+
+		pool.configure(props, controllerServices, profile, size, Utils.getWarmPoolMaxAge(props, controllerServices));
+
+		String claimed = pool.take();
+		pool.scheduleRefill();
+		return claimed;
+	}
+
+	private boolean isTracked(String serverId)
+	{
+		for (Pool pool : pools.values())
+		{
+			if (pool.contains(serverId))
+			{
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	private class Pool implements Runnable
+	{
+		private final String key;
+		// tags the standbys with their pool, so they can be told apart after a restart
+		private final String displayNamePrefix;
+
+		private final ConcurrentLinkedQueue<Standby> ready = new ConcurrentLinkedQueue<Standby>();
+		private final List<Standby> deploying = new ArrayList<Standby>();
+
+		private final AtomicBoolean refillScheduled = new AtomicBoolean();
+
+		// guarded by the pool's lock, as is the refill itself
+		private boolean recovered;
+
+		private volatile IProperty[] props;
+		private volatile IControllerServices controllerServices;
+		private volatile MachineProfile profile;
+		private volatile int size;
+		private volatile long maxAge;
+
+		Pool(String key)
+		{
+			this.key = key;
+			this.displayNamePrefix = STANDBY_DISPLAY_NAME_PREFIX + CONTROLLER_TAG + "_"
+					+ Integer.toHexString(key.hashCode()) + "_";
+		}
+
+		void configure(IProperty[] props, IControllerServices controllerServices, MachineProfile profile, int size,
+				long maxAge)
+		{
+			this.props = props;
+			this.controllerServices = controllerServices;
+			this.profile = profile;
+			this.size = size;
+			this.maxAge = maxAge;
+		}
+
+		String take()
+		{
+			Standby standby;
+
+			while ((standby = ready.poll()) != null)
+			{
+				if (!standby.isExpired(maxAge))
+				{
+					return standby.serverId;
+				}
+
+				// stale, the refill destroys it
+				synchronized (deploying)
+				{
+					deploying.add(standby);
+				}
+			}
+
+			return null;
+		}
+
+		void scheduleRefill()
+		{
+			if (refillScheduled.compareAndSet(false, true))
+			{
+				refills.execute(this);
+			}
+		}
+
+		public void run()
+		{
+			refillScheduled.set(false);
+
+			synchronized (this)
+			{
+				refill();
+			}
+		}
+
+		private void refill()
+		{
+			try
+			{
+				CloudStackClient client = ClientLocator.getInstance().getClient(props, controllerServices);
+
+				if (!recovered)
+				{
+					recoverOrphans(client);
+					recovered = true;
+				}
+
+				collectDeployed(client);
+				destroyExpired(client);
+
+				int missing = size - ready.size() - deployingCount();
+
+				for (int i = 0; i < missing; i++)
+				{
+					Server server = client.deployVirtualMachine(profile.getDeploymentParameters(),
+							displayNamePrefix + System.currentTimeMillis() + counter.getAndIncrement(), null, false);
+
+					AsyncJobFuture deployJob = client.getJob(server.getJobId());
+
+					synchronized (deploying)
+					{
+						deploying.add(new Standby(server.getId(), deployJob, System.currentTimeMillis()));
+					}
+
+					if (deployJob != null)
+					{
+						// make the standby claimable as soon as it is deployed
+						deployJob.addListener(new AsyncJobListener()
+						{
+							public void jobCompleted(AsyncJob job)
+							{
+								scheduleRefill();
+							}
+						});
+					}
+				}
+
+				if (size == 0 && ready.isEmpty() && deployingCount() == 0)
+				{
+					pools.remove(key, this);
+				}
+			}
+			catch (Exception e)
+			{
+				logger.log(Level.WARNING, "Failed refilling warm pool " + key, e);
+			}
+		}
+
+		// standbys a previous run left behind, e.g. before a controller restart: stopped ones deployed for this pool
+		// are adopted. Any other standby may belong to a pool not created yet, or to another controller, so it is
+		// only destroyed once it is past the max age and its own pool would have destroyed it anyway.
+		private void recoverOrphans(CloudStackClient client) throws Exception
+		{
+			for (VirtualMachine vm : client.findVirtualMachines(STANDBY_DISPLAY_NAME_PREFIX))
+			{
+				String displayName = vm.getDisplayName();
+
+				if (displayName == null || !displayName.startsWith(STANDBY_DISPLAY_NAME_PREFIX) || isTracked(vm.getId()))
+				{
+					continue;
+				}
+
+				if (displayName.startsWith(displayNamePrefix))
+				{
+					if (vm.getStatus() == ServerStatus.STOPPED)
+					{
+						// the expiry and size checks below destroy what the pool doesn't need
+						long created = parseCreated(vm.getCreated());
+						ready.add(new Standby(vm.getId(), null, created < 0 ? System.currentTimeMillis() : created));
+						logger.info("Adopted standby instance " + vm.getId() + " into warm pool " + key);
+					}
+				}
+				else if (vm.getStatus() == ServerStatus.STOPPED)
+				{
+					Standby stray = new Standby(vm.getId(), null, parseCreated(vm.getCreated()));
+
+					if (stray.deployedAt >= 0 && stray.isExpired(maxAge))
+					{
+						logger.info("Destroying expired stray standby instance " + vm.getId());
+						destroy(client, stray);
+					}
+				}
+			}
+		}
+
+		boolean contains(String serverId)
+		{
+			for (Standby standby : ready)
+			{
+				if (standby.serverId.equals(serverId))
+				{
+					return true;
+				}
+			}
+
+			synchronized (deploying)
+			{
+				for (Standby standby : deploying)
+				{
+					if (standby.serverId.equals(serverId))
+					{
+						return true;
+					}
+				}
+			}
+
+			return false;
+		}
+
+		// moves standbys whose deploy finished to the ready queue, destroys those whose deploy failed
+		private void collectDeployed(CloudStackClient client)
+		{
+			List<Standby> finished = new ArrayList<Standby>();
+
+			synchronized (deploying)
+			{
+				Iterator<Standby> pending = deploying.iterator();
+
+				while (pending.hasNext())
+				{
+					Standby standby = pending.next();
+
+					if (standby.deployJob == null || standby.deployJob.isDone())
+					{
+						pending.remove();
+						finished.add(standby);
+					}
+				}
+			}
+
+			for (Standby standby : finished)
+			{
+				try
+				{
+					if (isDeployed(client, standby) && !standby.isExpired(maxAge))
+					{
+						ready.add(standby);
+					}
+					else
+					{
+						destroy(client, standby);
+					}
+				}
+				catch (Exception e)
+				{
+					// look again on the next refill
+					synchronized (deploying)
+					{
+						deploying.add(standby);
+					}
+
+					logger.log(Level.FINE, "Failed checking standby instance " + standby.serverId, e);
+				}
+			}
+		}
+
+		private boolean isDeployed(CloudStackClient client, Standby standby) throws Exception
+		{
+			if (standby.deployJob != null && !standby.deployJob.isCancelled())
+			{
+				try
+				{
+					return standby.deployJob.get().getStatus() == AsyncJob.Status.SUCCEEDED;
+				}
+				catch (ExecutionException e)
+				{
+					// the tracker gave up on the job, ask the instance itself
+				}
+			}
+
+			return client.getCachedServerStatus(standby.serverId) == ServerStatus.STOPPED;
+		}
+
+		// standbys past the max age, and any beyond the configured size
+		private void destroyExpired(CloudStackClient client)
+		{
+			for (Standby standby : ready)
+			{
+				if ((standby.isExpired(maxAge) || ready.size() > size) && ready.remove(standby))
+				{
+					destroy(client, standby);
+				}
+			}
+		}
+
+		private int deployingCount()
+		{
+			synchronized (deploying)
+			{
+				return deploying.size();
+			}
+		}
+
+		private void destroy(CloudStackClient client, Standby standby)
+		{
+			try
+			{
+				client.terminateVirtualMachine(standby.serverId);
+			}
+			catch (Exception e)
+			{
+				logger.log(Level.WARNING, "Failed destroying standby instance " + standby.serverId + ", it must be "
+						+ "destroyed manually", e);
+			}
+		}
+	}
+
+	private static class Standby
+	{
+		final String serverId;
+		final AsyncJobFuture deployJob;
+		final long deployedAt;
+
+		Standby(String serverId, AsyncJobFuture deployJob, long deployedAt)
+		{
+			this.serverId = serverId;
+			this.deployJob = deployJob;
+			this.deployedAt = deployedAt;
+		}
+
+		boolean isExpired(long maxAge)
+		{
+			return System.currentTimeMillis() - deployedAt >= maxAge;
+		}
+	}
+
+	private static String controllerTag()
+	{
+		String host = System.getProperty(CONTROLLER_SERVICES_HOST_NAME_PROPERTY_KEY);
+
+		if (host == null)
+		{
+			try
+			{
+				host = InetAddress.getLocalHost().getHostAddress();
+			}
+			catch (UnknownHostException e)
+			{
+				host = "localhost";
+			}
+		}
+
+		int port = Integer.getInteger(CONTROLLER_SERVICES_PORT_PROPERTY_KEY, DEFAULT_CONTROLLER_PORT_VALUE);
+		return Integer.toHexString((host + ":" + port).hashCode());
+	}
+
+	// the listing's creation time, -1 when it can't be read
+	private static long parseCreated(String created)
+	{
+		if (created != null)
+		{
+			try
+			{
+				return new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ").parse(created).getTime();
+			}
+			catch (ParseException e)
+			{
+				logger.log(Level.FINE, "Unreadable creation time " + created, e);
+			}
+		}
+
+		return -1;
+	}
+}